@@ -0,0 +1,96 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing the speakers and the whole schedule with DataFetcher's own
+ * callbacks, i.e. everything a refresh does with the data apart from
+ * downloading it: matching keys, decoding values, parsing times and
+ * building the Speakers and Presentations.
+ *
+ * Run with -prof gc to see the allocation rate of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int sessions;
+
+  private DataFetcher dataFetcher;
+  private byte[] speakers;
+  private byte[] schedule;
+
+  @Setup
+  public void setUp() throws IOException {
+    SyntheticConference conference = new SyntheticConference(sessions);
+    String baseURL = "http://cfp.example.com/api/conferences/SYN/";
+    speakers = conference.speakersJson(baseURL);
+    schedule = conference.scheduleJson(baseURL, null, null);
+
+    /* Only the callbacks are used, so nothing is ever fetched or cached */
+    Path directory = Files.createTempDirectory("signage-bench");
+    Path propertiesFile = directory.resolve("bench.properties");
+    Properties properties = new Properties();
+    properties.setProperty("logging-level", "OFF");
+    properties.setProperty("devoxx-start-date", "2015-11-09");
+    properties.setProperty("image-cache", directory.toString());
+    properties.setProperty("operating-mode", "TEST");
+    properties.setProperty("test-scale", "1.0");
+    properties.setProperty("test-day", "0");
+    properties.setProperty("test-time", "09:00");
+
+    try (OutputStream out = Files.newOutputStream(propertiesFile)) {
+      properties.store(out, null);
+    }
+
+    Logger logger = Logger.getLogger("bench");
+    logger.setLevel(Level.OFF);
+    dataFetcher = new DataFetcher(logger,
+        new ControlProperties(propertiesFile.toString()),
+        Arrays.asList(conference.getRooms().get(0)));
+  }
+
+  @Benchmark
+  public Object speakers() throws IOException {
+    DataFetcher.SpeakerCallcack callback
+        = dataFetcher.new SpeakerCallcack(Collections.emptyMap());
+    new JSONByteParser(ByteBuffer.wrap(speakers)).parse(callback);
+    return callback;
+  }
+
+  @Benchmark
+  public Object schedule() throws IOException {
+    DataFetcher.SessionCallcack callback = dataFetcher.new SessionCallcack();
+    new JSONByteParser(ByteBuffer.wrap(schedule)).parse(callback);
+    return callback;
+  }
+}
@@ -0,0 +1,20 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CallbackBenchmark with the JIT turned off, which is as close as we can get
+ * on a development machine to how the parser runs on a small box before
+ * (or without) the JIT getting to it
+ */
+@Warmup(iterations = 1, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xint")
+public class InterpretedCallbackBenchmark extends CallbackBenchmark {
+}
@@ -0,0 +1,136 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import devoxx.JSONParserJP.CallbackAdapter;
+import devoxx.JSONParserJP.KeyedCallbackAdapter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the three ways JSONParserJP can parse the same data: the
+ * original char based parser reading through a Reader, the byte parser
+ * firing every event and the byte parser with a keyed callback that only
+ * asks for a handful of keys (as DataFetcher's callbacks do).
+ *
+ * Run with -prof gc to see the allocation rate of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONParserBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int sessions;
+
+  @Param({"speakers", "schedule"})
+  public String payload;
+
+  private byte[] json;
+
+  @Setup
+  public void setUp() {
+    SyntheticConference conference = new SyntheticConference(sessions);
+    String baseURL = "http://cfp.example.com/api/conferences/SYN/";
+    json = payload.equals("speakers") ? conference.speakersJson(baseURL)
+        : conference.scheduleJson(baseURL, null, null);
+  }
+
+  @Benchmark
+  public void reader(Blackhole blackhole) throws IOException {
+    JSONParserJP.parse(new InputStreamReader(new ByteArrayInputStream(json),
+        StandardCharsets.UTF_8), new Events(blackhole));
+  }
+
+  @Benchmark
+  public void bytes(Blackhole blackhole) throws IOException {
+    new JSONByteParser(ByteBuffer.wrap(json)).parse(new Events(blackhole));
+  }
+
+  @Benchmark
+  public void keyed(Blackhole blackhole) throws IOException {
+    new JSONByteParser(ByteBuffer.wrap(json)).parse(new Keys(blackhole));
+  }
+
+  /**
+   * Consumes every event, so none of the parsing can be optimised away
+   */
+  private static class Events extends CallbackAdapter {
+
+    private final Blackhole blackhole;
+
+    Events(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void stringValue(String value, int depth) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void numberValue(double value, int depth) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void booleanValue(boolean value, int depth) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void keyValue(String key, String value, int depth) {
+      blackhole.consume(value);
+    }
+  }
+
+  /**
+   * Asks for the same kind of keys as DataFetcher does and consumes their
+   * values
+   */
+  private static class Keys extends KeyedCallbackAdapter {
+
+    private static final String[] KEYS = {
+      "uuid", "firstName", "lastName", "avatarURL", "id", "title", "fromTime",
+      "toTime", "day", "href"
+    };
+
+    private final Blackhole blackhole;
+
+    Keys(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public String[] keys() {
+      return KEYS;
+    }
+
+    @Override
+    public void keyValue(int key, CharSequence value, int depth) {
+      if (key != JSONParserJP.UNKNOWN_KEY) {
+        blackhole.consume(value == null ? null : value.toString());
+      }
+    }
+  }
+}
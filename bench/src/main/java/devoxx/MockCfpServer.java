@@ -0,0 +1,499 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * A stand in for the CFP REST API, serving a SyntheticConference, so the
+ * fetch pipeline can be load and soak tested offline. Point devoxx-host of
+ * one or more screens at
+ *
+ *   http://host:port/api/conferences/SYN/
+ *
+ * and give them rooms from room1 up. It serves /speakers, /rooms/room/day
+ * and the speakers' avatars, and answers conditional requests with 304s.
+ *
+ * Things can be made to go wrong, each independently of the others:
+ *
+ *   --latency=ms        delay before every response
+ *   --jitter=ms         random extra delay of up to this much
+ *   --bandwidth=bytes   bytes per second to send each response at
+ *   --errors=fraction   fraction of requests answered with a 500 or 503
+ *   --truncate=fraction fraction of responses cut off half way through
+ *   --no-validators     never send validators, so never answer with a 304
+ *   --changes=seconds   swap two sessions over this often
+ *   --compress          gzip or deflate the JSON if the client accepts it
+ *
+ * and --sessions=n (default 1000) sets the size of the conference,
+ * --port=n (default 8080) where it is served and --quiet stops every
+ * request being logged. Run it with
+ *
+ *   java -cp bench/target/benchmarks.jar devoxx.MockCfpServer [options]
+ */
+public class MockCfpServer {
+
+  public static final String API_PATH = "/api/conferences/SYN/";
+
+  private static final DateTimeFormatter HTTP_DATE
+      = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+  private static final int AVATAR_SIZE = 400;
+  private static final int CHUNK_SIZE = 4096;
+
+  private final SyntheticConference conference;
+  private final HttpServer server;
+  private final Map<String, byte[]> avatars = new ConcurrentHashMap<>();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final ScheduledExecutorService changer
+      = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mock-cfp-changes");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private volatile String lastModified = HTTP_DATE.format(Instant.now());
+  private long latency;
+  private long jitter;
+  private long bandwidth;
+  private double errors;
+  private double truncate;
+  private boolean validators = true;
+  private boolean compress;
+  private boolean quiet;
+
+  /**
+   * Constructor
+   *
+   * @param port The port to serve on (0 for any free port)
+   * @param sessions The number of sessions in the conference
+   * @throws IOException If the port cannot be listened on
+   */
+  public MockCfpServer(int port, int sessions) throws IOException {
+    conference = new SyntheticConference(sessions);
+    server = HttpServer.create(new InetSocketAddress(port), 64);
+    server.createContext(API_PATH, this::handle);
+    server.setExecutor(Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "mock-cfp");
+      thread.setDaemon(true);
+      return thread;
+    }));
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 8080;
+    int sessions = 1000;
+    long latency = 0;
+    long jitter = 0;
+    long bandwidth = 0;
+    double errors = 0;
+    double truncate = 0;
+    boolean validators = true;
+    long changes = 0;
+    boolean compress = false;
+    boolean quiet = false;
+
+    for (String option : args) {
+      if (option.startsWith("--port=")) {
+        port = Integer.parseInt(value(option));
+      } else if (option.startsWith("--sessions=")) {
+        sessions = Integer.parseInt(value(option));
+      } else if (option.startsWith("--latency=")) {
+        latency = Long.parseLong(value(option));
+      } else if (option.startsWith("--jitter=")) {
+        jitter = Long.parseLong(value(option));
+      } else if (option.startsWith("--bandwidth=")) {
+        bandwidth = Long.parseLong(value(option));
+      } else if (option.startsWith("--errors=")) {
+        errors = Double.parseDouble(value(option));
+      } else if (option.startsWith("--truncate=")) {
+        truncate = Double.parseDouble(value(option));
+      } else if (option.equals("--no-validators")) {
+        validators = false;
+      } else if (option.startsWith("--changes=")) {
+        changes = Long.parseLong(value(option));
+      } else if (option.equals("--compress")) {
+        compress = true;
+      } else if (option.equals("--quiet")) {
+        quiet = true;
+      } else {
+        System.err.println("Unknown option " + option);
+        System.exit(1);
+      }
+    }
+
+    MockCfpServer server = new MockCfpServer(port, sessions);
+    server.setLatency(latency, jitter);
+    server.setBandwidth(bandwidth);
+    server.setErrors(errors);
+    server.setTruncate(truncate);
+    server.setValidators(validators);
+    server.setCompress(compress);
+    server.quiet = quiet;
+    server.start();
+
+    if (changes > 0) {
+      server.changeEvery(changes);
+    }
+
+    List<String> rooms = server.getConference().getRooms();
+    System.out.println("Serving " + sessions + " sessions in rooms "
+        + rooms.get(0) + " to " + rooms.get(rooms.size() - 1)
+        + " at http://localhost:" + server.getPort() + API_PATH);
+  }
+
+  private static String value(String option) {
+    return option.substring(option.indexOf('=') + 1);
+  }
+
+  /**
+   * Get the conference being served
+   *
+   * @return The conference
+   */
+  public SyntheticConference getConference() {
+    return conference;
+  }
+
+  /**
+   * Get the port being served on
+   *
+   * @return The port
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Get how many requests have been received
+   *
+   * @return The number of requests
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Delay every response
+   *
+   * @param latency The delay in milliseconds
+   * @param jitter The most random extra delay in milliseconds
+   */
+  public void setLatency(long latency, long jitter) {
+    this.latency = latency;
+    this.jitter = jitter;
+  }
+
+  /**
+   * Limit how fast each response is sent
+   *
+   * @param bandwidth Bytes per second, or 0 for as fast as possible
+   */
+  public void setBandwidth(long bandwidth) {
+    this.bandwidth = bandwidth;
+  }
+
+  /**
+   * Fail some of the requests with a server error
+   *
+   * @param errors The fraction of requests to fail
+   */
+  public void setErrors(double errors) {
+    this.errors = errors;
+  }
+
+  /**
+   * Cut some of the responses off part way through
+   *
+   * @param truncate The fraction of responses to cut off
+   */
+  public void setTruncate(double truncate) {
+    this.truncate = truncate;
+  }
+
+  /**
+   * Whether to send validators and answer conditional requests
+   *
+   * @param validators True to send them
+   */
+  public void setValidators(boolean validators) {
+    this.validators = validators;
+  }
+
+  /**
+   * Whether to compress the JSON for clients that accept it
+   *
+   * @param compress True to compress it
+   */
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
+  /**
+   * Start serving
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stop serving
+   */
+  public void stop() {
+    changer.shutdownNow();
+    server.stop(0);
+  }
+
+  /**
+   * Swap two sessions over now
+   *
+   * @return The ids of the sessions swapped
+   */
+  public String[] change() {
+    String[] swapped = conference.swapSessions(ThreadLocalRandom.current());
+    lastModified = HTTP_DATE.format(Instant.now());
+    log("Swapped " + swapped[0] + " and " + swapped[1]);
+    return swapped;
+  }
+
+  /**
+   * Swap two sessions over periodically
+   *
+   * @param seconds How often
+   */
+  public void changeEvery(long seconds) {
+    changer.scheduleAtFixedRate(this::change, seconds, seconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Answer a request
+   *
+   * @param exchange The request and response
+   * @throws IOException If the response cannot be sent
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    int request = requests.incrementAndGet();
+    String path = exchange.getRequestURI().getPath()
+        .substring(API_PATH.length());
+
+    try {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      long delay = latency + (jitter > 0 ? random.nextLong(jitter + 1) : 0);
+
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
+
+      if (random.nextDouble() < errors) {
+        int status = random.nextBoolean() ? 500 : 503;
+        log(request, path, status, 0);
+        exchange.sendResponseHeaders(status, -1);
+        return;
+      }
+
+      String host = exchange.getRequestHeaders().getFirst("Host");
+      String baseURL = "http://" + (host == null ? "localhost:" + getPort()
+          : host) + API_PATH;
+      byte[] body;
+      String contentType = "application/json; charset=utf-8";
+
+      if (path.equals("speakers")) {
+        body = conference.speakersJson(baseURL);
+      } else if (path.startsWith("rooms/")) {
+        String[] parts = path.split("/");
+
+        if (parts.length != 3 || !conference.getRooms().contains(parts[1])
+            || !Arrays.asList(SyntheticConference.DAYS).contains(parts[2])) {
+          log(request, path, 404, 0);
+          exchange.sendResponseHeaders(404, -1);
+          return;
+        }
+
+        body = conference.scheduleJson(baseURL, parts[1], parts[2]);
+      } else if (path.startsWith("avatars/") && path.endsWith(".png")) {
+        body = avatars.computeIfAbsent(path, MockCfpServer::avatar);
+        contentType = "image/png";
+      } else {
+        log(request, path, 404, 0);
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+
+      if (validators) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", lastModified);
+
+        if (etag.equals(exchange.getRequestHeaders()
+            .getFirst("If-None-Match"))) {
+          log(request, path, 304, 0);
+          exchange.sendResponseHeaders(304, -1);
+          return;
+        }
+      }
+
+      String encoding = compress && !contentType.equals("image/png")
+          ? encoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"))
+          : null;
+
+      if (encoding != null) {
+        body = compress(body, encoding);
+        exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+      }
+
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      exchange.sendResponseHeaders(200, body.length);
+      int length = body.length;
+
+      if (random.nextDouble() < truncate) {
+        length = body.length / 2;
+      }
+
+      log(request, path, 200, length);
+      send(exchange.getResponseBody(), body, length);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } catch (IOException ioe) {
+      /* The client gave up, which is fine */
+      log(request, path + " (" + ioe.getMessage() + ")", 0, 0);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Choose how to compress a response, preferring gzip
+   *
+   * @param acceptEncoding The Accept-Encoding of the request, or null
+   * @return gzip, deflate or null to send it as it is
+   */
+  private static String encoding(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+
+    List<String> codings = Arrays.asList(
+        acceptEncoding.toLowerCase().replace(" ", "").split(","));
+
+    if (codings.contains("gzip")) {
+      return "gzip";
+    }
+
+    return codings.contains("deflate") ? "deflate" : null;
+  }
+
+  private static byte[] compress(byte[] body, String encoding)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+
+    try (OutputStream compressed = encoding.equals("gzip")
+        ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+      compressed.write(body);
+    }
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Send a response body, as slowly as we have been told to. If less than
+   * all of it is sent the connection is closed when the exchange is, so
+   * the client sees the response end early
+   *
+   * @param out Where to send it
+   * @param body The body
+   * @param length How much of it to send
+   * @throws IOException If it cannot be sent
+   * @throws InterruptedException If we are stopped while waiting
+   */
+  private void send(OutputStream out, byte[] body, int length)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+
+    for (int sent = 0; sent < length;) {
+      int chunk = Math.min(CHUNK_SIZE, length - sent);
+      out.write(body, sent, chunk);
+      out.flush();
+      sent += chunk;
+
+      if (bandwidth > 0) {
+        long due = start + sent * 1000000000L / bandwidth;
+        long wait = due - System.nanoTime();
+
+        if (wait > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+      }
+    }
+
+    if (length == body.length) {
+      out.close();
+    }
+  }
+
+  /**
+   * Draw an avatar, a different colour for each speaker
+   *
+   * @param path The path of the avatar
+   * @return The avatar as a PNG
+   */
+  private static byte[] avatar(String path) {
+    Random random = new Random(path.hashCode());
+    BufferedImage image = new BufferedImage(AVATAR_SIZE, AVATAR_SIZE * 4 / 3,
+        BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(new Color(random.nextInt(0x1000000)));
+    graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+    graphics.setColor(new Color(random.nextInt(0x1000000)));
+    graphics.fillOval(AVATAR_SIZE / 4, AVATAR_SIZE / 4, AVATAR_SIZE / 2,
+        AVATAR_SIZE / 2);
+    graphics.dispose();
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+
+    try {
+      ImageIO.write(image, "png", png);
+    } catch (IOException ioe) {
+      throw new IllegalStateException(ioe);
+    }
+
+    return png.toByteArray();
+  }
+
+  private void log(int request, String path, int status, int length) {
+    log("#" + request + " " + status + " " + path
+        + (length > 0 ? " " + length + " bytes" : ""));
+  }
+
+  private void log(String message) {
+    if (!quiet) {
+      System.out.println(message);
+    }
+  }
+}
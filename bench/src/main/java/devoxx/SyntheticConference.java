@@ -0,0 +1,369 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A made up conference in the format of the CFP REST API, for benchmarks and
+ * for the mock CFP server. The same number of sessions always gives the same
+ * data, so results can be compared from one run to the next.
+ *
+ * Each room has ten one hour slots a day from 09:00, plus a coffee break and
+ * lunch, for five days, so a conference of 1000 sessions has 20 rooms. There
+ * is one speaker for every two sessions and each session has one to three
+ * speakers. Speakers have bios of a few hundred to a couple of thousand
+ * characters, as the real ones do, since they make up most of the speaker
+ * data.
+ *
+ * Sessions can be swapped between slots while the conference is being
+ * served, to test how changes are picked up.
+ */
+public class SyntheticConference {
+
+  public static final String[] DAYS = {
+    "monday", "tuesday", "wednesday", "thursday", "friday"
+  };
+
+  private static final int SLOTS_PER_DAY = 10;
+  private static final int SESSIONS_PER_ROOM = SLOTS_PER_DAY * DAYS.length;
+  private static final String[] FIRST_NAMES = {
+    "Stephan", "Angie", "Jasper", "Simon", "José", "Zoë", "François",
+    "Mark", "Ingrid", "Björn", "Ana", "Chen", "Olga", "Kevin", "Aurélie"
+  };
+  private static final String[] LAST_NAMES = {
+    "Janssen", "Jones", "Potts", "Ritter", "Pereda", "Müller", "Dubois",
+    "Reinhold", "O'Neill", "Ångström", "Kowalski", "Wei", "Ivanova", "Nuñez"
+  };
+  private static final String[] TRACKS = {
+    "Java SE", "Cloud, Containers & Infrastructure", "Architecture & Security",
+    "Mind the Geek", "Web & UX", "Big Data & Analytics", "Methodology & Culture"
+  };
+  private static final String[] TYPES = {
+    "Conference", "Tools-in-Action", "Hand's on Labs", "University", "BOF",
+    "Quickie"
+  };
+  private static final String[] WORDS = {
+    "java", "lambda", "stream", "reactive", "cloud", "container", "latency",
+    "throughput", "garbage", "collector", "microservice", "module", "\"type\"",
+    "inference", "café", "développeur", "naïve", "résumé", "over", "the",
+    "and", "with", "for", "your", "faster", "simple", "scale", "test"
+  };
+
+  private final int sessions;
+  private final int rooms;
+  private final List<String> speakerIds = new ArrayList<>();
+  private final List<String> speakerJson = new ArrayList<>();
+  private final List<Slot> slots = new ArrayList<>();
+
+  /**
+   * Constructor
+   *
+   * @param sessions How many sessions there are
+   */
+  public SyntheticConference(int sessions) {
+    this.sessions = sessions;
+    rooms = Math.max(1,
+        (sessions + SESSIONS_PER_ROOM - 1) / SESSIONS_PER_ROOM);
+    Random random = new Random(sessions);
+    int speakerCount = Math.max(1, sessions / 2);
+
+    for (int i = 0; i < speakerCount; i++) {
+      speakerIds.add(String.format("%016x%08x", random.nextLong(), i));
+    }
+
+    for (int i = 0; i < speakerCount; i++) {
+      speakerJson.add(speaker(random, speakerIds.get(i)));
+    }
+
+    for (int i = 0; i < sessions; i++) {
+      slots.add(new Slot(random, i));
+    }
+  }
+
+  /**
+   * Get the number of sessions
+   *
+   * @return The number of sessions
+   */
+  public int getSessions() {
+    return sessions;
+  }
+
+  /**
+   * Get the ids of the rooms
+   *
+   * @return The room ids, room1 onwards
+   */
+  public List<String> getRooms() {
+    List<String> roomIds = new ArrayList<>();
+
+    for (int i = 1; i <= rooms; i++) {
+      roomIds.add("room" + i);
+    }
+
+    return Collections.unmodifiableList(roomIds);
+  }
+
+  /**
+   * Get the ids of the speakers
+   *
+   * @return The speaker uuids
+   */
+  public List<String> getSpeakerIds() {
+    return Collections.unmodifiableList(speakerIds);
+  }
+
+  /**
+   * Get the list of speakers, as served at /speakers
+   *
+   * @param baseURL The URL the API is served from, ending in /
+   * @return The speakers as JSON
+   */
+  public byte[] speakersJson(String baseURL) {
+    StringBuilder json = new StringBuilder(speakerJson.size() * 2048);
+    json.append('[');
+
+    for (int i = 0; i < speakerJson.size(); i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+
+      json.append(speakerJson.get(i).replace("${base}", baseURL));
+    }
+
+    return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get a schedule, as served at /rooms/room/day
+   *
+   * @param baseURL The URL the API is served from, ending in /
+   * @param room The room, or null for every room
+   * @param day The day, or null for the whole week
+   * @return The slots as JSON
+   */
+  public synchronized byte[] scheduleJson(String baseURL, String room,
+      String day) {
+    StringBuilder json = new StringBuilder(1024 + slots.size() * 1024);
+    json.append("{\"slots\":[");
+    boolean first = true;
+
+    for (int r = 1; r <= rooms; r++) {
+      String roomId = "room" + r;
+
+      if (room != null && !room.equals(roomId)) {
+        continue;
+      }
+
+      for (int d = 0; d < DAYS.length; d++) {
+        if (day != null && !day.equals(DAYS[d])) {
+          continue;
+        }
+
+        for (int k = 0; k < SLOTS_PER_DAY; k++) {
+          int index = (r - 1) * SESSIONS_PER_ROOM + d * SLOTS_PER_DAY + k;
+
+          if (index < slots.size()) {
+            first = comma(json, first);
+            slots.get(index).append(json, baseURL, r, d, k);
+          }
+
+          if (k == 1 || k == 3) {
+            first = comma(json, first);
+            appendBreak(json, r, d, k);
+          }
+        }
+      }
+    }
+
+    return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Swap two sessions over, as happens when the organisers move a popular
+   * talk to a bigger room at the last minute
+   *
+   * @param random Chooses the sessions
+   * @return The ids of the two sessions
+   */
+  public synchronized String[] swapSessions(Random random) {
+    int first = random.nextInt(slots.size());
+    int second = random.nextInt(slots.size());
+    Collections.swap(slots, first, second);
+    return new String[]{slots.get(first).id, slots.get(second).id};
+  }
+
+  private static boolean comma(StringBuilder json, boolean first) {
+    if (!first) {
+      json.append(',');
+    }
+
+    return false;
+  }
+
+  private String speaker(Random random, String uuid) {
+    String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+    String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    String bio = words(random, 40 + random.nextInt(300));
+    StringBuilder json = new StringBuilder(4096);
+    json.append("{\"uuid\":").append(quote(uuid))
+        .append(",\"firstName\":").append(quote(firstName))
+        .append(",\"lastName\":").append(quote(lastName))
+        .append(",\"avatarURL\":")
+        .append(quote("${base}avatars/" + uuid + ".png"))
+        .append(",\"company\":").append(quote(lastName + " & Co"))
+        .append(",\"blog\":").append(quote("https://blog.example.com/"
+            + firstName.toLowerCase()))
+        .append(",\"twitter\":").append(quote("@" + firstName + lastName))
+        .append(",\"lang\":\"en\"")
+        .append(",\"bio\":").append(quote(bio))
+        .append(",\"bioAsHtml\":").append(quote("<p>" + bio + "</p>"))
+        .append(",\"acceptedTalks\":null")
+        .append(",\"links\":[{\"href\":")
+        .append(quote("${base}speakers/" + uuid))
+        .append(",\"rel\":\"http://cfp.devoxx.be/api/profile/speaker\"")
+        .append(",\"title\":").append(quote(firstName + " " + lastName))
+        .append("}]}");
+    return json.toString();
+  }
+
+  private void appendBreak(StringBuilder json, int room, int day, int slot) {
+    String id = slot == 1 ? "coffee" : "lunch";
+    String name = slot == 1 ? "Coffee Break" : "Lunch";
+    json.append("{\"roomId\":").append(quote("room" + room))
+        .append(",\"notAllocated\":false,\"talk\":null")
+        .append(",\"break\":{\"id\":").append(quote(id))
+        .append(",\"nameEN\":").append(quote(name))
+        .append(",\"nameFR\":").append(quote(name))
+        .append(",\"room\":{\"id\":").append(quote("room" + room))
+        .append(",\"name\":").append(quote("Room " + room))
+        .append(",\"capacity\":350,\"setup\":\"theatre\",\"recorded\":null}}")
+        .append(",\"roomSetup\":\"theatre\",\"roomCapacity\":350")
+        .append(",\"roomName\":").append(quote("Room " + room))
+        .append(",\"fromTime\":").append(quote(time(slot, 50)))
+        .append(",\"toTime\":").append(quote(time(slot + 1, 0)))
+        .append(",\"day\":").append(quote(DAYS[day]))
+        .append(",\"slotId\":").append(quote(id + "_" + DAYS[day] + "_" + room))
+        .append('}');
+  }
+
+  private static String time(int slot, int minutes) {
+    return String.format("%02d:%02d", 9 + slot, minutes);
+  }
+
+  private static String words(Random random, int count) {
+    StringBuilder text = new StringBuilder(count * 8);
+
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        text.append(i % 12 == 0 ? ".\n" : " ");
+      }
+
+      text.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+
+    return text.append('.').toString();
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 16);
+    quoted.append('"');
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+
+      switch (c) {
+        case '"':
+          quoted.append("\\\"");
+          break;
+        case '\\':
+          quoted.append("\\\\");
+          break;
+        case '\n':
+          quoted.append("\\n");
+          break;
+        case '/':
+          quoted.append("\\/");
+          break;
+        default:
+          if (c > 0x7e && c % 7 == 0) {
+            /* Some non ASCII characters escaped, as the CFP does */
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+
+    return quoted.append('"').toString();
+  }
+
+  /**
+   * A session. Where and when it is depends on its place in the list
+   */
+  private class Slot {
+
+    private final String id;
+    private final String title;
+    private final String summary;
+    private final String track;
+    private final String type;
+    private final List<String> speakers = new ArrayList<>();
+
+    Slot(Random random, int index) {
+      id = String.format("%s-%04d", "SYN", index);
+      title = words(random, 3 + random.nextInt(8));
+      summary = words(random, 40 + random.nextInt(160));
+      track = TRACKS[random.nextInt(TRACKS.length)];
+      type = TYPES[random.nextInt(TYPES.length)];
+      int speakerCount = 1 + random.nextInt(3);
+
+      for (int i = 0; i < speakerCount; i++) {
+        speakers.add(speakerIds.get(random.nextInt(speakerIds.size())));
+      }
+    }
+
+    void append(StringBuilder json, String baseURL, int room, int day,
+        int slot) {
+      json.append("{\"roomId\":").append(quote("room" + room))
+          .append(",\"notAllocated\":false,\"break\":null")
+          .append(",\"talk\":{\"talkType\":").append(quote(type))
+          .append(",\"track\":").append(quote(track))
+          .append(",\"trackId\":").append(quote(track.toLowerCase()))
+          .append(",\"summaryAsHtml\":").append(quote("<p>" + summary + "</p>"))
+          .append(",\"summary\":").append(quote(summary))
+          .append(",\"id\":").append(quote(id))
+          .append(",\"speakers\":[");
+
+      for (int i = 0; i < speakers.size(); i++) {
+        String uuid = speakers.get(i);
+
+        if (i > 0) {
+          json.append(',');
+        }
+
+        json.append("{\"link\":{\"href\":")
+            .append(quote(baseURL + "speakers/" + uuid))
+            .append(",\"rel\":\"http://cfp.devoxx.be/api/profile/speaker\"")
+            .append(",\"title\":").append(quote(uuid))
+            .append("},\"name\":").append(quote(uuid)).append('}');
+      }
+
+      json.append("],\"title\":").append(quote(title))
+          .append(",\"lang\":\"en\"}")
+          .append(",\"roomSetup\":\"theatre\",\"roomCapacity\":350")
+          .append(",\"roomName\":").append(quote("Room " + room))
+          .append(",\"fromTime\":").append(quote(time(slot, 0)))
+          .append(",\"toTime\":").append(quote(time(slot, 50)))
+          .append(",\"day\":").append(quote(DAYS[day]))
+          .append(",\"slotId\":").append(quote(id.toLowerCase()))
+          .append('}');
+    }
+  }
+}
@@ -29,9 +29,21 @@ public class ControlProperties {
   private Level loggingLevel = Level.INFO;
   private int mode = MODE_REAL;
   private int dataRefreshTime = 30;
-  private int screenRefreshTime = 60;
+  private int fetchTimeout = 30;
+  private int connectTimeout = 10;
+  private int maxConnections = 6;
+  private int photoFetchThreads = 4;
+  private int photoMemoryCache = 16;
+  private int photoSize = 150;
+  private int photoMaxAge = 24;
+  private int metricsPort = 0;
+  private int hubPort = 8080;
+  private String photoHost;
+  private String pushURL;
+  private boolean compressCache;
   private String dataURL = "http://cfp.devoxx.be/api/conferences/DV15/";
   private String imageCache = "/home/devoxx/speaker-images";
+  private String dataCache = "";
   private LocalDate startDate;
   private double testScale;
   private int testDay;
@@ -102,15 +114,108 @@ public class ControlProperties {
           "ControlProperties: data-refresh-time is not a number");
     }
 
-    /* How often do we want to refresh the data on the screen */
-    value = properties.getProperty("screen-refresh-time");
+    /* How long to wait for each download before giving up (in seconds) */
+    value = properties.getProperty("fetch-timeout");
 
-    try {
-      int i = Integer.parseInt(value);
-      screenRefreshTime = i;
-    } catch (NumberFormatException nfe) {
-      System.out.println(
-          "ControlProperties: screen-refresh-time is not a number");
+    if (value != null) {
+      try {
+        fetchTimeout = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println("ControlProperties: fetch-timeout is not a number");
+      }
+    }
+
+    /* How long to wait to connect to a server (in seconds) */
+    value = properties.getProperty("connect-timeout");
+
+    if (value != null) {
+      try {
+        connectTimeout = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println(
+            "ControlProperties: connect-timeout is not a number");
+      }
+    }
+
+    /* How many downloads from the same server to make at the same time */
+    value = properties.getProperty("max-connections-per-host");
+
+    if (value != null) {
+      try {
+        maxConnections = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println(
+            "ControlProperties: max-connections-per-host is not a number");
+      }
+    }
+
+    /* How many speaker photos to download at the same time */
+    value = properties.getProperty("photo-fetch-threads");
+
+    if (value != null) {
+      try {
+        photoFetchThreads = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println(
+            "ControlProperties: photo-fetch-threads is not a number");
+      }
+    }
+
+    /* Size of the speaker photo thumbnails stored in the cache */
+    value = properties.getProperty("photo-size");
+
+    if (value != null) {
+      try {
+        photoSize = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println("ControlProperties: photo-size is not a number");
+      }
+    }
+
+    /* How often (in hours) to check cached speaker photos for changes */
+    value = properties.getProperty("photo-max-age");
+
+    if (value != null) {
+      try {
+        photoMaxAge = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println(
+            "ControlProperties: photo-max-age is not a number");
+      }
+    }
+
+    /* How much memory (in Mb) to keep decoded speaker photos in */
+    value = properties.getProperty("photo-memory-cache");
+
+    if (value != null) {
+      try {
+        photoMemoryCache = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println(
+            "ControlProperties: photo-memory-cache is not a number");
+      }
+    }
+
+    /* Port to serve metrics on (0 to not serve them) */
+    value = properties.getProperty("metrics-port");
+
+    if (value != null) {
+      try {
+        metricsPort = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println("ControlProperties: metrics-port is not a number");
+      }
+    }
+
+    /* Port a hub serves the data and photos to the screens on */
+    value = properties.getProperty("hub-port");
+
+    if (value != null) {
+      try {
+        hubPort = Integer.parseInt(value);
+      } catch (NumberFormatException nfe) {
+        System.out.println("ControlProperties: hub-port is not a number");
+      }
     }
 
     /* Where to get data from */
@@ -120,6 +225,15 @@ public class ControlProperties {
       dataURL = value;
     }
 
+    /* Where to get speaker photos from, if not from their own URLs */
+    photoHost = properties.getProperty("photo-host");
+
+    /* Where to hear about changes as they happen, if anywhere */
+    pushURL = properties.getProperty("push-url");
+
+    /* Whether to keep the cached data gzipped */
+    compressCache = processBooleanProperty("compress-cache");
+
     value = properties.getProperty("devoxx-start-date");
 
     /**
@@ -142,6 +256,13 @@ public class ControlProperties {
       imageCache = System.getProperty("user.home") + "/.devoxx-signage";
     }
 
+    /* Where to cache the data from the server, and the schedule snapshot */
+    value = properties.getProperty("data-cache");
+
+    if (value != null) {
+      dataCache = value;
+    }
+
     /* What mode to run in: real or test */
     value = properties.getProperty("operating-mode");
     String modeName = null;
@@ -176,9 +297,21 @@ public class ControlProperties {
       System.out.println("====================");
       System.out.println("logging-level       = " + loggingLevel.toString());
       System.out.println("data-refresh-time   = " + dataRefreshTime);
-      System.out.println("screen-refresh-time = " + screenRefreshTime);
+      System.out.println("fetch-timeout       = " + fetchTimeout);
+      System.out.println("connect-timeout     = " + connectTimeout);
+      System.out.println("max-connections-per-host = " + maxConnections);
       System.out.println("devoxx-host         = " + dataURL);
       System.out.println("image-cache         = " + imageCache);
+      System.out.println("data-cache          = " + dataCache);
+      System.out.println("photo-fetch-threads = " + photoFetchThreads);
+      System.out.println("photo-size          = " + photoSize);
+      System.out.println("photo-memory-cache  = " + photoMemoryCache);
+      System.out.println("photo-max-age       = " + photoMaxAge);
+      System.out.println("metrics-port        = " + metricsPort);
+      System.out.println("hub-port            = " + hubPort);
+      System.out.println("photo-host          = " + photoHost);
+      System.out.println("push-url            = " + pushURL);
+      System.out.println("compress-cache      = " + compressCache);
       System.out.println("mode                = " + modeName);
 
       if (mode == MODE_TEST) {
@@ -228,12 +361,30 @@ public class ControlProperties {
   }
 
   /**
-   * Get how long we want to wait between updates to the screen display
+   * Get how long to wait for a download before giving up
    *
-   * @return Time (in seconds) between screen refreshes
+   * @return Time (in seconds) to wait for each download
    */
-  public int getScreenRefreshTime() {
-    return screenRefreshTime;
+  public int getFetchTimeout() {
+    return fetchTimeout;
+  }
+
+  /**
+   * Get how long to wait to connect to a server before giving up
+   *
+   * @return Time (in seconds) to wait for each connection
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Get how many downloads to make from the same server at the same time
+   *
+   * @return The most connections to a server
+   */
+  public int getMaxConnections() {
+    return maxConnections;
   }
 
   /**
@@ -262,7 +413,99 @@ public class ControlProperties {
   public String getImageCache() {
     return imageCache;
   }
+
+  /**
+   * Get the directory where we want to cache the data from the server, along
+   * with the snapshot of the schedule
+   *
+   * @return The directory for data caching
+   */
+  public String getDataCache() {
+    return dataCache;
+  }
   
+  /**
+   * Get how many speaker photos to download at the same time
+   *
+   * @return The number of photo download threads
+   */
+  public int getPhotoFetchThreads() {
+    return photoFetchThreads;
+  }
+
+  /**
+   * Get the size of the speaker photo thumbnails stored in the cache
+   *
+   * @return The thumbnail width and height in pixels
+   */
+  public int getPhotoSize() {
+    return photoSize;
+  }
+
+  /**
+   * Get how often to check cached speaker photos for changes
+   *
+   * @return The revalidation interval in hours
+   */
+  public int getPhotoMaxAge() {
+    return photoMaxAge;
+  }
+
+  /**
+   * Get the port to serve metrics on
+   *
+   * @return The port number, or 0 if metrics are not served
+   */
+  public int getMetricsPort() {
+    return metricsPort;
+  }
+
+  /**
+   * Get the port a hub serves the data and photos to the screens on
+   *
+   * @return The port number
+   */
+  public int getHubPort() {
+    return hubPort;
+  }
+
+  /**
+   * Get where to download speaker photos from instead of their own URLs,
+   * i.e. the photos of a hub
+   *
+   * @return The base URL of the photos or null to use their own URLs
+   */
+  public String getPhotoHost() {
+    return photoHost;
+  }
+
+  /**
+   * Get where to listen for changes to the schedule pushed by a hub
+   *
+   * @return The URL of the hub's events or null to only poll for changes
+   */
+  public String getPushURL() {
+    return pushURL;
+  }
+
+  /**
+   * Get whether the data cached from the server is stored gzipped
+   *
+   * @return True to gzip the cache files
+   */
+  public boolean isCompressCache() {
+    return compressCache;
+  }
+
+  /**
+   * Get how much memory to keep decoded speaker photos in
+   *
+   * @return The photo memory cache size in Mb
+   */
+  public int getPhotoMemoryCache() {
+    return photoMemoryCache;
+  }
+
   /**
    * Are we in test or real mode
    *
@@ -3,7 +3,12 @@
  */
 package devoxx;
 
-import devoxx.JSONParserJP.CallbackAdapter;
+import devoxx.JSONParserJP.KeyedCallback;
+import devoxx.JSONParserJP.KeyedCallbackAdapter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -11,12 +16,26 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
- * Class for loading all session data from devoxx server
+ * Class for loading all session data from devoxx server. One fetcher can
+ * serve several rooms, in which case the speaker data (and so the speaker
+ * photos) is shared between them.
  *
  * @author Jasper Potts
  */
@@ -29,165 +48,609 @@ public class DataFetcher {
 //  private static final DateFormat DATE_FORMAT = new SimpleDateFormat("HH:mm");
   private final Map<String, Speaker> speakerMap = new HashMap<>();
   private final Map<String, Presentation> presentationMap = new HashMap<>();
-  private final List<Presentation> presentations = new ArrayList<>();
+  private final Map<String, List<ParsedSession>> sessionsByFile
+      = new HashMap<>();
+  private final Set<String> loadedFiles = ConcurrentHashMap.newKeySet();
+  private ScheduleChanges lastChanges = ScheduleChanges.NONE;
+  private volatile Map<String, Schedule> schedules = Collections.emptyMap();
+  private volatile long lastUpdated;
+  private volatile boolean reachable;
+  private final ExecutorService fetchExecutor;
+  private final PhotoPrefetcher photoPrefetcher;
   private final Logger logger;
-  private final String room;
+  private final List<String> rooms;
   private final String devoxxHost;
   private final LocalDate startDate;
-  private final String imageCache;
+  private final PhotoCache photoCache;
+  private final int fetchTimeout;
+  private final HttpFetcher fetcher;
+  private final boolean compressCache;
+  private final Path dataCache;
+  private final String speakersFile;
+  private final Path snapshotFile;
 
   /**
    * Constructor
    *
    * @param logger Where to log messages to
    * @param controlProperties control properties
-   * @param room Which room to get data for
+   * @param rooms Which rooms to get data for
    */
   public DataFetcher(Logger logger, ControlProperties controlProperties,
-      String room) {
+      List<String> rooms) {
     this.logger = logger;
-    this.room = room;
+    this.rooms = new ArrayList<>(rooms);
     devoxxHost = controlProperties.getDevoxxHost();
-    imageCache = controlProperties.getImageCache();
+    fetcher = new HttpFetcher(controlProperties.getConnectTimeout(),
+        controlProperties.getFetchTimeout(),
+        controlProperties.getMaxConnections());
+    photoCache = new PhotoCache(logger, controlProperties.getImageCache(),
+        controlProperties.getPhotoMemoryCache() * 1024L * 1024L,
+        controlProperties.getPhotoSize(),
+        controlProperties.getPhotoMaxAge(),
+        fetcher,
+        controlProperties.getPhotoHost());
+    photoCache.migrate();
     startDate = controlProperties.getStartDate();
+    fetchTimeout = controlProperties.getFetchTimeout();
+    compressCache = controlProperties.isCompressCache();
+
+    /* The data is cached where it has always been, unless told otherwise */
+    dataCache = Paths.get(controlProperties.getDataCache());
+    speakersFile = dataCache.resolve("speakers.json").toString();
+    snapshotFile = dataCache.resolve("schedule.snapshot");
+
+    try {
+      Files.createDirectories(dataCache);
+    } catch (IOException ioe) {
+      logger.warning("Unable to create data cache " + dataCache + " ("
+          + ioe.getMessage() + ")");
+    }
+    photoPrefetcher = new PhotoPrefetcher(logger,
+        controlProperties.getPhotoFetchThreads());
+
+    /* One thread for the speakers and one per day of each room, so a full
+     * refresh runs entirely in parallel and nothing waits in the queue while
+     * the shared deadline runs out. Daemon threads so we never hold up an
+     * exit
+     */
+    fetchExecutor = Executors.newFixedThreadPool(
+        this.rooms.size() * day.length + 1, r -> {
+      Thread thread = new Thread(r, "data-fetcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    Metrics.gauge("signage_data_updated_timestamp_seconds",
+        "When the data was last updated from the server",
+        () -> lastUpdated / 1000.0);
+  }
+
+  /**
+   * Get the prefetcher that caches the speaker photos in the background
+   *
+   * @return The photo prefetcher
+   */
+  public PhotoPrefetcher getPhotoPrefetcher() {
+    return photoPrefetcher;
+  }
+
+  /**
+   * Get the photo cache
+   *
+   * @return The photo cache
+   */
+  public PhotoCache getPhotoCache() {
+    return photoCache;
+  }
+
+  /**
+   * Get the file the data from part of the web service is cached in, so a
+   * hub can serve it to the screens
+   *
+   * @param path The path of the data, relative to devoxx-host (speakers or
+   * rooms/room/day)
+   * @return The file or null if it isn't data we fetch
+   */
+  public Path getCacheFile(String path) {
+    if (path.equals("speakers")) {
+      return Paths.get(speakersFile);
+    }
+
+    for (String room : rooms) {
+      for (int i = 0; i < day.length; i++) {
+        if (path.equals("rooms/" + room + "/" + day[i])) {
+          return Paths.get(scheduleFile(room, i));
+        }
+      }
+    }
+
+    return null;
   }
 
   /**
-   * Get the list of presentations for the chosen room
+   * Get the schedule of presentations for a room. The schedule is immutable
+   * and replaced as a whole when the data changes.
    *
-   * @return
+   * @param room The room (one of those given to the constructor)
+   * @return The latest schedule
    */
-  public List<Presentation> getPresentationList() {
-    return presentations;
+  public Schedule getSchedule(String room) {
+    return schedules.getOrDefault(room, Schedule.EMPTY);
   }
 
   /**
-   * Try to update the data from the Devoxx CFP web service
+   * Load the data saved by the last successful update, so the screens can
+   * be shown before any data is fetched
+   *
+   * @return Whether there was a snapshot to load
+   */
+  public boolean loadSnapshot() {
+    long start = System.nanoTime();
+    ScheduleSnapshot snapshot
+        = ScheduleSnapshot.load(logger, snapshotFile, photoCache);
+
+    if (snapshot == null) {
+      return false;
+    }
+
+    speakerMap.putAll(snapshot.speakers);
+    Map<String, Schedule> loadedSchedules = new HashMap<>();
+
+    for (String room : rooms) {
+      List<Presentation> presentations
+          = snapshot.rooms.getOrDefault(room, Collections.emptyList());
+
+      for (Presentation presentation : presentations) {
+        presentationMap.put(presentation.id, presentation);
+      }
+
+      loadedSchedules.put(room, new Schedule(presentations));
+    }
+
+    schedules = Collections.unmodifiableMap(loadedSchedules);
+    lastChanges = new ScheduleChanges(
+        new HashSet<>(presentationMap.keySet()), Collections.emptySet(),
+        Collections.emptySet());
+    logger.info("Loaded [" + presentationMap.size()
+        + "] PRESENTATIONS from snapshot in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    return true;
+  }
+
+  /**
+   * Try to update the data from the Devoxx CFP web service. The speakers and
+   * each day's schedule are fetched concurrently; a day that does not arrive
+   * within the fetch timeout keeps whatever data we had for it before.
    *
    * @return Whether the update suceeded or failed
    */
   public boolean updateData() {
-    logger.fine("Retrieving data for room " + room);
-
-    /* First get all the speakers data */
-    String dataUrl;
+    /* Only this update's fetches can say the server answered it; one left
+     * over from an update that timed out only sees its own flag
+     */
+    AtomicBoolean answered = new AtomicBoolean();
 
     try {
+      return updateData(answered);
+    } finally {
+      reachable = answered.get();
+    }
+  }
+
+  /**
+   * Update the data
+   *
+   * @param answered Set when the server answers any of the fetches
+   * @return Whether the update suceeded or failed
+   */
+  private boolean updateData(AtomicBoolean answered) {
+    logger.fine("Retrieving data for rooms " + rooms);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(fetchTimeout);
+
+    /* The fetch threads only see a copy of the speakers, as a fetch left
+     * over from an update that timed out may still be parsing while this
+     * update changes the map
+     */
+    Map<String, Speaker> known
+        = Collections.unmodifiableMap(new HashMap<>(speakerMap));
+
+    /* Start everything off at once */
+    Future<SpeakerCallcack> speakerFuture = fetchExecutor.submit(() -> {
       logger.finer("Retrieving speaker data...");
-      dataUrl = devoxxHost + "speakers";
-      JSONParserJP.download(logger, dataUrl, "speakers.json");
-      JSONParserJP.parse(logger, "speakers.json", new SpeakerCallcack());
+      return fetch(devoxxHost + "speakers", speakersFile, answered,
+          () -> new SpeakerCallcack(known));
+    });
+
+    Map<String, Future<SessionCallcack>> dayFutures = new HashMap<>();
+
+    for (String room : rooms) {
+      for (int i = 0; i < day.length; i++) {
+        String dataUrl = devoxxHost + "rooms/" + room + "/" + day[i];
+        String jsonString = scheduleFile(room, i);
+        logger.finest(room + " " + day[i] + " URL = " + dataUrl);
+        dayFutures.put(jsonString, fetchExecutor.submit(
+            () -> fetch(dataUrl, jsonString, answered,
+                SessionCallcack::new)));
+      }
+    }
+
+    /* First merge all the speakers data */
+    try {
+      SpeakerCallcack speakers = await(speakerFuture, deadline);
+
+      if (speakers != null) {
+        /* Every speaker is offered to the prefetcher, which ignores those
+         * whose photo is cached and up to date
+         */
+        for (Speaker speaker : speakers.found.values()) {
+          speakerMap.put(speaker.uuid, speaker);
+          photoPrefetcher.prefetch(speaker, PhotoPrefetcher.PRIORITY_LOW);
+        }
+
+        loadedFiles.add(speakersFile);
+      }
     } catch (Exception e) {
       logger.severe("Failed to retrieve speaker data!");
       logger.severe(e.getMessage());
-      return false;
+
+      if (speakerMap.isEmpty()) {
+        dayFutures.values().forEach(f -> f.cancel(true));
+        return false;
+      }
     }
 
     logger.info("Found [" + speakerMap.size() + "] SPEAKERS");
 
-    /* Now retrieve all the session data for the week */
-    for (int i = 0; i < 5; i++) {
+    /* Now merge all the session data for the week */
+    for (Map.Entry<String, Future<SessionCallcack>> entry
+        : dayFutures.entrySet()) {
       try {
-        logger.finer("Retrieving data for " + day[i]);
-        dataUrl = devoxxHost + "rooms/" + room + "/" + day[i];
-        logger.finest(day[i] + " URL = " + dataUrl);
-        String jsonString = "schedule-" + day[i] + ".json";
-        JSONParserJP.download(logger, dataUrl, jsonString);
-        JSONParserJP.parse(logger, jsonString, new SessionCallcack());
+        SessionCallcack sessions = await(entry.getValue(), deadline);
+
+        if (sessions != null) {
+          sessionsByFile.put(entry.getKey(), sessions.sessions);
+          loadedFiles.add(entry.getKey());
+        }
       } catch (Exception e) {
-        logger.severe("Failed to retrieve schedule for " + day[i]);
-        logger.severe(e.getMessage());
+        logger.severe("Failed to retrieve schedule " + entry.getKey());
+        logger.severe(String.valueOf(e.getMessage()));
       }
     }
 
-    if (presentationMap.isEmpty()) {
+    /* Work out what has actually changed, linking the presentations to the
+     * latest speaker data.  Presentations whose content is the same as
+     * before are kept as they are, so the display can tell what's new just
+     * by comparing references
+     */
+    Map<String, Presentation> updatedMap = new HashMap<>();
+    Map<String, List<Presentation>> roomPresentations = new HashMap<>();
+    Set<String> added = new HashSet<>();
+    Set<String> changed = new HashSet<>();
+
+    for (String room : rooms) {
+      List<Presentation> roomList = new ArrayList<>();
+      roomPresentations.put(room, roomList);
+
+      for (int i = 0; i < day.length; i++) {
+        List<ParsedSession> sessions = sessionsByFile.getOrDefault(
+            scheduleFile(room, i), Collections.emptyList());
+
+        for (ParsedSession session : sessions) {
+          Presentation candidate
+              = session.presentation.withSpeakers(session.resolveSpeakers());
+          Presentation previous = presentationMap.get(candidate.id);
+
+          if (previous != null && previous.sameContent(candidate)) {
+            candidate = previous;
+          } else {
+            (previous == null ? added : changed).add(candidate.id);
+          }
+
+          updatedMap.put(candidate.id, candidate);
+          roomList.add(candidate);
+        }
+      }
+    }
+
+    /* Nothing at all is a failure, not every session being removed, so the
+     * changes of the last good update stand
+     */
+    if (updatedMap.isEmpty()) {
       logger.severe("Error: No presentation data downloaded!");
       return false;
     }
 
-    logger.info("Found [" + presentationMap.size() + "] PRESENTATIONS\n");
+    Set<String> removed = new HashSet<>(presentationMap.keySet());
+    removed.removeAll(updatedMap.keySet());
+    lastChanges = new ScheduleChanges(added, removed, changed);
+
+    logger.info("Found [" + updatedMap.size() + "] PRESENTATIONS "
+        + lastChanges + "\n");
+    lastUpdated = System.currentTimeMillis();
+
+    if (lastChanges.isEmpty()) {
+      return true;
+    }
+
+    presentationMap.clear();
+    presentationMap.putAll(updatedMap);
+    Map<String, Schedule> updatedSchedules = new HashMap<>();
+
+    for (String room : rooms) {
+      updatedSchedules.put(room, new Schedule(roomPresentations.get(room)));
+    }
+
+    schedules = Collections.unmodifiableMap(updatedSchedules);
+
+    /* Keep a copy for a quick start next time */
+    try {
+      ScheduleSnapshot.save(snapshotFile, speakerMap.values(),
+          roomPresentations);
+    } catch (IOException ioe) {
+      logger.warning("Unable to save snapshot: " + ioe.getMessage());
+    }
 
-    /* Sort the presentation by time.  I'm not sure this is really
-     * necessary given the size of the data set (SR)
-     */
-    presentations.clear();
-    presentations.addAll(presentationMap.values());
-    Collections.sort(presentations,
-        (s1, s2) -> s1.fromTime.compareTo(s2.fromTime));
     return true;
   }
 
   /**
-   * Callback class for handling Devoxx speaker JSON data
+   * Get what changed in the presentations on the last successful update
+   *
+   * @return The sessions that were added, removed or changed
+   */
+  public ScheduleChanges getLastChanges() {
+    return lastChanges;
+  }
+
+  /**
+   * Check whether the web service answered any of the requests of the last
+   * update. An update can succeed with some (or all) of the data from the
+   * cache when it can't be reached. A file that fails while the rest arrive
+   * is a problem with that file rather than the server, so is left to the
+   * next regular refresh rather than retried straight away
+   *
+   * @return False if every download failed or timed out
+   */
+  public boolean isReachable() {
+    return reachable;
+  }
+
+  /**
+   * Get the name of the file a day's schedule for a room is cached in
+   *
+   * @param room The room
+   * @param dayIndex The day (Monday = 0)
+   * @return The file name, in the data cache
+   */
+  private String scheduleFile(String room, int dayIndex) {
+    return dataCache.resolve(
+        "schedule-" + room + "-" + day[dayIndex] + ".json").toString();
+  }
+
+  /**
+   * Wait for a fetch to finish, giving up (and cancelling it) at the deadline
+   *
+   * @param future The fetch to wait for
+   * @param deadline The System.nanoTime() to give up at
+   * @return The result of the fetch
+   * @throws Exception If the fetch failed or timed out
+   */
+  private <T> T await(Future<T> future, long deadline) throws Exception {
+    try {
+      return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException te) {
+      future.cancel(true);
+      throw new IOException("Timed out after " + fetchTimeout + " seconds");
+    } catch (ExecutionException ee) {
+      throw ee.getCause() instanceof Exception
+          ? (Exception) ee.getCause() : ee;
+    }
+  }
+
+  /**
+   * Fetch one JSON document. When the server reports the data is unchanged,
+   * or can't be reached, there is nothing new unless the file has not been
+   * merged into our data yet (e.g. just after startup), in which case the
+   * cached copy is parsed.
+   *
+   * @param dataUrl Where to get the data
+   * @param fileName The file to cache the data in
+   * @param answered Set if the server answers
+   * @param callbacks Supplies the callback to parse the data with
+   * @return The callback holding the new data, or null if there is none
+   * @throws IOException If the data is neither downloaded nor cached
+   */
+  private <T extends KeyedCallback> T fetch(String dataUrl, String fileName,
+      AtomicBoolean answered, Supplier<T> callbacks) throws IOException {
+    T callback = callbacks.get();
+    JSONParserJP.DownloadResult result = JSONParserJP.download(logger,
+        dataUrl, fileName, fetcher, compressCache, callback);
+
+    if (result != JSONParserJP.DownloadResult.FAILED) {
+      answered.set(true);
+    }
+
+    if (result == JSONParserJP.DownloadResult.PARSED) {
+      return callback;
+    }
+
+    /* Nothing new, so only the cached copy if we haven't merged it yet */
+    if (loadedFiles.contains(fileName)) {
+      return null;
+    }
+
+    callback = callbacks.get();
+    JSONParserJP.parse(logger, fileName, callback);
+    return callback;
+  }
+
+  /**
+   * A presentation as parsed, along with the ids of its speakers. Speakers
+   * are resolved once all the data is in, as the speaker data is fetched at
+   * the same time as the sessions, so the presentation here is only a
+   * template and is never handed out itself.
+   */
+  private class ParsedSession {
+
+    final Presentation presentation;
+    final String[] speakerIds;
+
+    ParsedSession(Presentation presentation, String[] speakerIds) {
+      this.presentation = presentation;
+      this.speakerIds = speakerIds;
+    }
+
+    /**
+     * Look up the speakers of the presentation
+     *
+     * @return The speakers we have data for
+     */
+    Speaker[] resolveSpeakers() {
+      List<Speaker> speakers = new ArrayList<>();
+
+      for (String uuid : speakerIds) {
+        Speaker speaker = speakerMap.get(uuid);
+
+        if (speaker == null) {
+          logger.finer("Failed to load: " + uuid);
+        } else {
+          speakers.add(speaker);
+        }
+      }
+
+      return speakers.toArray(new Speaker[speakers.size()]);
+    }
+  }
+
+  /**
+   * Callback class for handling Devoxx speaker JSON data. The bios make up
+   * most of the payload and are never displayed, so only the keys needed to
+   * build a Speaker are registered.
    */
-  private class SpeakerCallcack extends CallbackAdapter {
+  class SpeakerCallcack extends KeyedCallbackAdapter {
+
+    private static final int UUID = 0;
+    private static final int FIRST_NAME = 1;
+    private static final int LAST_NAME = 2;
+    private static final int AVATAR_URL = 3;
+
+    private final String[] keys = {
+      "uuid", "firstName", "lastName", "avatarURL"
+    };
 
+    private final Map<String, Speaker> known;
+    private final Map<String, Speaker> found = new HashMap<>();
     private String uuid;
     private String firstName;
     private String lastName;
-    private String company;
-    private String bio;
     private String imageUrl;
-    private String twitter;
-    private boolean rockStar;
+
+    /**
+     * Constructor
+     *
+     * @param known The speakers we already have, which are reused where
+     * they haven't changed
+     */
+    SpeakerCallcack(Map<String, Speaker> known) {
+      this.known = known;
+    }
+
+    /**
+     * The keys we want values for
+     *
+     * @return The keys, indexed by key id
+     */
+    @Override
+    public String[] keys() {
+      return keys;
+    }
 
     /**
      * Key value pair detected in the JSON data
      *
-     * @param key The key
+     * @param key The key id
      * @param value The value
      * @param depth The depth of the key/value
      */
     @Override
-    public void keyValue(String key, String value, int depth) {
-      if (depth == 2) {
-        if (null != key) {
-          switch (key) {
-            case "uuid":
-              uuid = value;
-              break;
-            case "lastName":
-              lastName = value;
-              break;
-            case "firstName":
-              firstName = value;
-              break;
-            case "bio":
-              bio = value;
-              break;
-            case "company":
-              company = value;
-              break;
-            case "avatarURL":
-              imageUrl = value;
-              break;
-          }
-        }
+    public void keyValue(int key, CharSequence value, int depth) {
+      if (depth != 2 || value == null) {
+        return;
       }
+
+      switch (key) {
+        case UUID:
+          uuid = value.toString();
+          break;
+        case LAST_NAME:
+          lastName = value.toString();
+          break;
+        case FIRST_NAME:
+          firstName = value.toString();
+          break;
+        case AVATAR_URL:
+          imageUrl = value.toString();
+          break;
+      }
+    }
+
+    /**
+     * Indicates that the parser ran into start of object '{'. Everything we
+     * need is a direct child of a speaker object, so anything nested deeper
+     * is skipped.
+     *
+     * @param key The key id of the object, if it has one
+     * @param depth The current depth, number of parent objects and arrays that
+     * contain this object
+     * @return Whether to skip the object
+     */
+    @Override
+    public boolean startObject(int key, int depth) {
+      return depth >= 2;
+    }
+
+    /**
+     * Indicates that the parser ran into start of array '['. As with
+     * objects, arrays inside a speaker object are skipped.
+     *
+     * @param key The key id of the array, if it has one
+     * @param depth The current depth, number of parent objects and arrays that
+     * contain this array
+     * @return Whether to skip the array
+     */
+    @Override
+    public boolean startArray(int key, int depth) {
+      return depth >= 2;
     }
 
     /**
      * Indicates that the parser ran into end of object '}'
      *
-     * @param objectName if this object is value of key/value pair the this is
-     * the key name, otherwise its null
+     * @param key The key id of the object, if it has one
      * @param depth The current depth, number of parent objects and arrays that
      * contain this object
      */
     @Override
-    public void endObject(String objectName, int depth) {
+    public void endObject(int key, int depth) {
       logger.finest("End speaker object found: " + firstName + " " + lastName);
 
       if (depth == 1) {
-        Speaker speaker = speakerMap.get(uuid);
+        Speaker speaker = known.get(uuid);
+
+        /* A new photo makes a new speaker, so their sessions are redrawn */
+        if (speaker != null && !Objects.equals(speaker.downloadURL, imageUrl)) {
+          logger.fine("Photo changed for " + speaker);
+          speaker = null;
+        }
 
         if (speaker == null) {
           logger.finest("Speaker is null, adding new speaker");
           speaker = new Speaker(logger, uuid, firstName + " " + lastName,
-              imageUrl, imageCache);
-          speaker.cachePhoto();
-          speakerMap.put(uuid, speaker);
+              imageUrl, photoCache);
         }
+
+        found.put(uuid, speaker);
       }
     }
   }
@@ -195,9 +658,29 @@ public class DataFetcher {
   /**
    * Callback class for handling Devoxx session JSON data
    */
-  private class SessionCallcack extends CallbackAdapter {
+  class SessionCallcack extends KeyedCallbackAdapter {
+
+    private static final int ID = 0;
+    private static final int SUMMARY = 1;
+    private static final int TRACK = 2;
+    private static final int TALK_TYPE = 3;
+    private static final int HREF = 4;
+    private static final int ROOM_NAME = 5;
+    private static final int TITLE = 6;
+    private static final int FROM_TIME = 7;
+    private static final int TO_TIME = 8;
+    private static final int DAY = 9;
+    private static final int TALK = 10;
+    private static final int SPEAKERS = 11;
+    private static final int LINK = 12;
+
+    private final String[] keys = {
+      "id", "summary", "track", "talkType", "href", "roomName", "title",
+      "fromTime", "toTime", "day", "talk", "speakers", "link"
+    };
 
-    private final List<Speaker> speakers = new ArrayList<>();
+    private final List<ParsedSession> sessions = new ArrayList<>();
+    private final List<String> speakers = new ArrayList<>();
     public String id;
     private String summary;
     private String type;
@@ -208,55 +691,61 @@ public class DataFetcher {
     private LocalDateTime end;
     private int length;
 
+    /**
+     * The keys we want values for
+     *
+     * @return The keys, indexed by key id
+     */
+    @Override
+    public String[] keys() {
+      return keys;
+    }
+
     /**
      * Key value pair detected in the JSON data
      *
-     * @param key The key
+     * @param key The key id
      * @param value The value
      * @param depth The depth of the key/value
      */
     @Override
-    public void keyValue(String key, String value, int depth) {
-      if (depth == 4 && "id".equals(key)) {
-        id = value;
-      } else if (depth == 4 && "summary".equals(key)) {
-        summary = value;
-      } else if (depth == 4 && "track".equals(key)) {
-        track = value;
-      } else if (depth == 4 && "talkType".equals(key)) {
-        type = value;
-      } else if (depth == 7 && "href".equals(key)) {
-        Speaker speaker
-            = speakerMap.get(value.substring(value.lastIndexOf('/') + 1));
+    public void keyValue(int key, CharSequence value, int depth) {
+      if (value == null) {
+        return;
+      }
 
-        if (speaker == null) {
-          logger.finer("Failed to load: "
-              + value.substring(value.lastIndexOf('/') + 1));
-        } else {
-          speakers.add(speaker);
-        }
-      } else if (depth == 3 && "roomName".equals(key)) {
-        room = value;
-      } else if (depth == 4 && "title".equals(key)) {
-        title = value;
+      if (depth == 4 && key == ID) {
+        id = value.toString();
+      } else if (depth == 4 && key == SUMMARY) {
+        summary = value.toString();
+      } else if (depth == 4 && key == TRACK) {
+        track = value.toString();
+      } else if (depth == 4 && key == TALK_TYPE) {
+        type = value.toString();
+      } else if (depth == 7 && key == HREF) {
+        speakers.add(lastPathElement(value));
+      } else if (depth == 3 && key == ROOM_NAME) {
+        room = value.toString();
+      } else if (depth == 4 && key == TITLE) {
+        title = value.toString();
         logger.finest("Title = " + title);
-      } else if (depth == 3 && "fromTime".equals(key)) {
+      } else if (depth == 3 && key == FROM_TIME) {
         logger.finest("Session start time = " + value);
         LocalTime startTime
             = LocalTime.parse(value, DateTimeFormatter.ISO_LOCAL_TIME);
         start = LocalDateTime.of(startDate, startTime);
-      } else if (depth == 3 && "toTime".equals(key)) {
+      } else if (depth == 3 && key == TO_TIME) {
         logger.finest("Session end time = " + value);
         LocalTime startTime
             = LocalTime.parse(value, DateTimeFormatter.ISO_LOCAL_TIME);
         end = LocalDateTime.of(startDate, startTime);
-      } else if (depth == 3 && "day".equals(key)) {
+      } else if (depth == 3 && key == DAY) {
         logger.finest("Day = " + value);
 
         /**
          * Process which day it is.
          */
-        switch (value) {
+        switch (value.toString()) {
           case "monday":
             break;
           case "tuesday":
@@ -284,44 +773,90 @@ public class DataFetcher {
     /**
      * Indicates that the parser ran into end of object '}'
      *
-     * @param objectName if this object is value of key/value pair the this is
-     * the key name, otherwise its null
+     * @param key The key id of the object, if it has one
      * @param depth The current depth, number of parent objects and arrays that
      * contain this object
      */
     @Override
-    public void endObject(String objectName, int depth) {
+    public void endObject(int key, int depth) {
       if (depth == 2 && title != null) {
         /* XXX LETS COME BACK AND FIGURE THIS OUT LATER */
         length = 0;
 
         Presentation presentation
             = new Presentation(logger, id, title, room, start, end, length);
-        presentationMap.put(
-            id,
-            presentation);
-          System.out.println("presentation = " + presentation.title);
+        sessions.add(new ParsedSession(
+            presentation,
+            speakers.toArray(new String[speakers.size()])));
+        logger.finest("presentation = " + presentation.title);
         presentation.setExtended(
             summary,
-            speakers.toArray(new Speaker[speakers.size()]),
+            new Speaker[0],
             track,
             type);
       }
     }
 
     /**
-     * Indicates that the parser ran into start of object '{'
+     * Indicates that the parser ran into start of object '{'. A slot is
+     * made up of its times, the talk and the talk's speaker links; anything
+     * else (breaks, room details, etc) is skipped.
      *
-     * @param objectName if this object is value of key/value pair the this is
-     * the key name, otherwise its null
+     * @param key The key id of the object, if it has one
      * @param depth The current depth, number of parent objects and arrays that
      * contain this object
+     * @return Whether to skip the object
+     */
+    @Override
+    public boolean startObject(int key, int depth) {
+      switch (depth) {
+        case 2:
+          /* New slot, so forget everything from the previous one */
+          speakers.clear();
+          id = null;
+          summary = null;
+          type = null;
+          track = null;
+          title = null;
+          room = null;
+          return false;
+        case 3:
+          return key != TALK;
+        case 6:
+          return key != LINK;
+        default:
+          return false;
+      }
+    }
+
+    /**
+     * Indicates that the parser ran into start of array '['. The only arrays
+     * we need are the list of slots and the speakers of a talk.
+     *
+     * @param key The key id of the array, if it has one
+     * @param depth The current depth, number of parent objects and arrays that
+     * contain this array
+     * @return Whether to skip the array
      */
     @Override
-    public void startObject(String objectName, int depth) {
-      if (depth == 2) {
-        speakers.clear();
+    public boolean startArray(int key, int depth) {
+      return depth > 1 && key != SPEAKERS;
+    }
+
+    /**
+     * Get the text after the last '/' of a link without copying the rest
+     *
+     * @param link The link
+     * @return The last element of the link's path
+     */
+    private String lastPathElement(CharSequence link) {
+      int i = link.length();
+
+      while (i > 0 && link.charAt(i - 1) != '/') {
+        i--;
       }
+
+      return link.subSequence(i, link.length()).toString();
     }
   }
 }
@@ -4,23 +4,27 @@
 package devoxx;
 
 import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Application;
-import javafx.event.ActionEvent;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
-import javafx.util.Duration;
-
-import static javafx.animation.Animation.INDEFINITE;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 
@@ -30,19 +34,38 @@ import javafx.scene.input.KeyEvent;
  */
 public class Devoxx extends Application {
 
+    private final static long MAX_UPDATE_DELAY = TimeUnit.HOURS.toMillis(1);
     private final static Logger logger
         = Logger.getLogger(Devoxx.class.getName());
     private final static ConsoleHandler consoleHandler = new ConsoleHandler();
-    private final List<Presentation> newPresentations = new ArrayList<>();
     private ControlProperties controlProperties;
-    private FXMLDocumentController screenController;
-    private String roomNumber;
+    private final List<RoomDisplay> displays = new ArrayList<>();
     private DataFetcher dataFetcher;
-    private List<Presentation> presentations;
-    private Presentation currentPresentation = null;
-    private Presentation firstPresentation;
-    private Presentation secondPresentation;
-    private Presentation thirdPresentation;
+    private ScheduledFuture<?> nextUpdate;
+    private PushListener pushListener;
+    private RefreshScheduler refreshScheduler;
+
+    /* All screen updates are done on this thread, so the JavaFX
+     * application thread only has to apply the results
+     */
+    private final ScheduledExecutorService updater
+        = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "screen-updater");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /* The data is refreshed on its own thread, so a slow or failing fetch
+     * never holds up the screens changing at a session boundary.  The
+     * schedules are published as immutable snapshots, so the two threads
+     * don't need to coordinate
+     */
+    private final ScheduledExecutorService refresher
+        = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "data-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
 
     /**
      * Entry point for the JavaFX application lifecycle
@@ -53,13 +76,17 @@ public class Devoxx extends Application {
     @Override
     public void start(Stage stage) throws Exception {
         List<String> parameters = getParameters().getRaw();
-        String room = parameters.isEmpty() ? null : getParameters().getRaw().get(0);
+        String roomList = parameters.isEmpty() ? null : getParameters().getRaw().get(0);
 
-        if (room == null || room.isEmpty()) {
+        if (roomList == null || roomList.isEmpty()) {
             System.out.println("Please specify a room to display");
             System.exit(1);
         }
 
+        /* Several rooms can be given, separated by commas, in which case one
+         * screen is opened for each, all sharing the same data
+         */
+        List<String> rooms = Arrays.asList(roomList.split(","));
         String propertiesFile = null;
 
         if (parameters.size() > 1) {
@@ -73,7 +100,7 @@ public class Devoxx extends Application {
         logger.addHandler(consoleHandler);
 
         logger.fine("===================================================");
-        logger.fine("=== DEVOXX DISPLAY APP for [" + room + "]");
+        logger.fine("=== DEVOXX DISPLAY APP for " + rooms);
 
         if (controlProperties.isTestMode()) {
             logger.finest("=== RUNNING IN TEST MODE...");
@@ -81,38 +108,145 @@ public class Devoxx extends Application {
 
         logger.fine("===================================================");
 
-        /* Fetch the data from the Web service */
-        dataFetcher = new DataFetcher(logger, controlProperties, room);
+        int metricsPort = controlProperties.getMetricsPort();
+
+        if (metricsPort > 0) {
+            try {
+                MetricsServer metricsServer
+                    = new MetricsServer(logger, metricsPort);
+                metricsServer.start();
+                metricsServer.watchFxThread();
+            } catch (IOException ioe) {
+                logger.warning("Unable to serve metrics on port " + metricsPort
+                    + " (" + ioe.getMessage() + ")");
+            }
+        }
 
-        /* If the first read fails we don't really have any way to continue */
-        if (!dataFetcher.updateData()) {
-            System.err.println("Error retrieving initial data from server");
-            System.err.println("Bailing out!");
-            System.exit(1);
+        /* Check the room names before going to the trouble of getting data */
+        List<String> roomNumbers = new ArrayList<>();
+
+        for (String room : rooms) {
+            roomNumbers.add(roomNumber(room));
+        }
+
+        /* Start with the data saved last time, if there is any, and fetch
+         * the latest in the background.  Without a snapshot the screens
+         * start empty (and offline) and fill in once the background fetch
+         * has the data, so the window never waits on the network
+         */
+        dataFetcher = new DataFetcher(logger, controlProperties, rooms);
+        boolean snapshotLoaded = dataFetcher.loadSnapshot();
+
+        if (!snapshotLoaded) {
+            logger.info("No saved data, showing the screens empty until "
+                + "the data is retrieved");
+        }
+
+        List<Screen> screens = Screen.getScreens();
+
+        for (int i = 0; i < rooms.size(); i++) {
+            Stage roomStage = i == 0 ? stage : new Stage();
+            FXMLDocumentController screenController
+                = createScreen(roomStage, roomNumbers.get(i));
+
+            /* Put each extra room on its own monitor, if there is one */
+            if (i > 0 && i < screens.size()) {
+                Rectangle2D bounds = screens.get(i).getBounds();
+                roomStage.setX(bounds.getMinX());
+                roomStage.setY(bounds.getMinY());
+            }
+
+            displays.add(new RoomDisplay(logger, rooms.get(i), screenController,
+                dataFetcher.getPhotoPrefetcher()));
         }
 
-        presentations = dataFetcher.getPresentationList();
+        /* Photos that weren't cached when a screen was drawn appear once they
+         * are
+         */
+        dataFetcher.getPhotoPrefetcher().addListener(speaker ->
+            updater.execute(logErrors(
+                () -> displays.forEach(d -> d.photoCached(speaker)))));
+
+        /* Show the sessions now, after which update() works out when the
+         * screens next need to change
+         */
+        updater.execute(logErrors(this::update));
+
+        if (!snapshotLoaded) {
+            displays.forEach(d -> d.getScreenController().setOffline());
+        }
 
-        /**
-         * IMPORTANT:
-         *
-         * If you use this code for a venue that uses different naming for the
-         * rooms you will need to change this. Devoxx BE uses rooms with a
-         * single digit number and two BOF rooms.
+        /* Periodically check for any updates to the published data in case
+         * of last minute changes, retrying sooner when that fails.  This
+         * runs on the refresher thread, so the screens keep running while
+         * the data is fetched.  While a hub is pushing us the changes there
+         * is no need to poll.  The first refresh is straight away, with or
+         * without a snapshot
          */
+        refreshScheduler = new RefreshScheduler(logger, refresher,
+            TimeUnit.MINUTES.toMillis(controlProperties.getDataRefreshTime()),
+            this::updateData,
+            () -> pushListener != null && pushListener.isConnected());
+
+        refreshScheduler.start();
+
+        /* Fetch the data whenever the hub says it has changed, and when we
+         * (re)connect in case it changed while we weren't listening
+         */
+        String pushURL = controlProperties.getPushURL();
+
+        if (pushURL != null) {
+            pushListener = new PushListener(logger, pushURL,
+                controlProperties.getConnectTimeout(),
+                refreshScheduler::refreshNow,
+                changes -> {
+                    logger.info("Hub pushed changes " + changes);
+                    refreshScheduler.refreshNow();
+                });
+            pushListener.start();
+        }
+    }
+
+    /**
+     * Work out the room number to display from the CFP room name
+     *
+     * IMPORTANT:
+     *
+     * If you use this code for a venue that uses different naming for the
+     * rooms you will need to change this. Devoxx BE uses rooms with a single
+     * digit number and two BOF rooms.
+     *
+     * @param room The room name used by the CFP web service
+     * @return The room number to display
+     */
+    private String roomNumber(String room) {
         if (room.startsWith("room")) {
-            roomNumber = room.substring("room".length());
+            return room.substring("room".length());
         } else if (room.startsWith("bof")) {
-            roomNumber = "BOF" + room.substring("bof".length());
-        } else {
-            logger.severe("Room name not recognised (must be roomX or bofX)");
-            System.exit(4);
+            return "BOF" + room.substring("bof".length());
         }
 
+        logger.severe("Room name not recognised (must be roomX or bofX): "
+            + room);
+        System.exit(4);
+        return null;
+    }
+
+    /**
+     * Load the screen layout into a stage and show it
+     *
+     * @param stage The stage to use
+     * @param roomNumber The room number to show
+     * @return The controller for the screen
+     * @throws IOException If the layout can't be loaded
+     */
+    private FXMLDocumentController createScreen(Stage stage,
+        String roomNumber) throws IOException {
         FXMLLoader myLoader
             = new FXMLLoader(getClass().getResource("FXMLDocument.fxml"));
         Parent root = (Parent) myLoader.load();
-        screenController = ((FXMLDocumentController) myLoader.getController());
+        FXMLDocumentController screenController
+            = ((FXMLDocumentController) myLoader.getController());
 
         if (controlProperties.isTestMode()) {
             root.setScaleX(controlProperties.getTestScale());
@@ -128,36 +262,47 @@ public class Devoxx extends Application {
         stage.show();
 
         screenController.setRoom(roomNumber);
-    //  update();
-
-        /* Use a Timeline to periodically check for any updates to the published
-         * data in case of last minute changes
-         */
-        Timeline downloadTimeline = new Timeline(new KeyFrame(
-            Duration.minutes(controlProperties.getDataRefreshTime()),
-            (ActionEvent t) -> updateData()));
-        downloadTimeline.setCycleCount(INDEFINITE);
-        downloadTimeline.play();
-
-        /* Use another timeline to periodically update the screen display so 
-         * the time changes and the session information correctly reflects what's
-         * happening
-         */
-        Timeline updateTimeline = new Timeline(new KeyFrame(
-            Duration.seconds(controlProperties.getScreenRefreshTime()),
-            (ActionEvent t) -> update()));
-        updateTimeline.setCycleCount(INDEFINITE);
-        updateTimeline.getKeyFrames().get(0).getOnFinished().handle(null);
-        updateTimeline.play();
+        return screenController;
     }
 
-    private void updateData() {
+    /**
+     * Get the latest data. Called on the refresher thread
+     *
+     * @return Whether the server answered
+     */
+    private boolean updateData() {
         if (dataFetcher.updateData()) {
-            screenController.setOnline();
-            update();
-        } else {
-            screenController.setOffline();
+            Platform.runLater(() ->
+                displays.forEach(d -> d.getScreenController().setOnline()));
+
+            /* Only bother the displays if the schedule really changed */
+            if (!dataFetcher.getLastChanges().isEmpty()) {
+                updater.execute(logErrors(this::update));
+            }
+
+            return dataFetcher.isReachable();
         }
+
+        Platform.runLater(() ->
+            displays.forEach(d -> d.getScreenController().setOffline()));
+        return false;
+    }
+
+    /**
+     * Wrap a task for the updater thread so that an unexpected error is
+     * logged, rather than silently cancelling all its future runs
+     *
+     * @param task The task to run
+     * @return The wrapped task
+     */
+    private Runnable logErrors(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Background update failed", e);
+            }
+        };
     }
 
     /**
@@ -169,11 +314,18 @@ public class Devoxx extends Application {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        /* A hub has no screen, so doesn't start JavaFX at all */
+        if (args.length > 0 && args[0].equals("--hub")) {
+            Hub.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         launch(args);
     }
 
     /**
-     * Update the display
+     * Update the display and schedule the next update for when the sessions
+     * shown next change. Called on the updater thread
      */
     private void update() {
         LocalDateTime now;
@@ -188,40 +340,53 @@ public class Devoxx extends Application {
         }
 
         logger.finer("Date and time of update = " + now);
-        newPresentations.clear();
+        logger.fine("Screen update @ (" + now + ")");
 
-        for (Presentation presentation : presentations) {
-            if (now.isBefore(presentation.toTime)) {
-                newPresentations.add(presentation);
-            }
+        LocalDateTime nextChange = null;
 
-            if (newPresentations.size() >= 3) {
-                break;
+        for (RoomDisplay display : displays) {
+            Schedule schedule = dataFetcher.getSchedule(display.getRoom());
+            display.update(schedule, now);
+            LocalDateTime change = schedule.nextChange(now);
+
+            if (change != null
+                && (nextChange == null || change.isBefore(nextChange))) {
+                nextChange = change;
             }
         }
 
-        firstPresentation
-            = newPresentations.size() >= 1 ? newPresentations.get(0) : null;
-        secondPresentation
-            = newPresentations.size() >= 2 ? newPresentations.get(1) : null;
-        thirdPresentation
-            = newPresentations.size() >= 3 ? newPresentations.get(2) : null;
-        logger.fine("Screen update @ (" + now + ")");
+        scheduleUpdate(now, nextChange);
+    }
+
+    /**
+     * Arrange for the display to be updated at the next session boundary,
+     * replacing any update already scheduled. There is no polling in
+     * between, but we never sleep for more than an hour so a change to the
+     * system clock can't leave the screens stuck
+     *
+     * @param now The time the display was updated for
+     * @param nextChange When the sessions shown next change (null if never)
+     */
+    private void scheduleUpdate(LocalDateTime now, LocalDateTime nextChange) {
+        if (nextUpdate != null) {
+            nextUpdate.cancel(false);
+            nextUpdate = null;
+        }
 
-        if (currentPresentation != firstPresentation) {
-            currentPresentation = firstPresentation;
-            screenController.setScreenData(
-                firstPresentation, secondPresentation, thirdPresentation);
-            logger.finer("New presentation: " + firstPresentation);
+        /* In test mode time only moves when we move it */
+        if (controlProperties.isTestMode()) {
+            return;
+        }
 
-            if (secondPresentation != null) {
-                logger.finer("Second presentation: " + secondPresentation);
-            }
+        long delay = MAX_UPDATE_DELAY;
 
-            if (thirdPresentation != null) {
-                logger.finer("Third presentation: " + thirdPresentation);
-            }
+        if (nextChange != null) {
+            delay = Math.min(delay, ChronoUnit.MILLIS.between(now, nextChange));
         }
+
+        logger.fine("Next screen update in " + delay + "ms");
+        nextUpdate = updater.schedule(logErrors(this::update), delay,
+            TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -235,13 +400,19 @@ public class Devoxx extends Application {
         if (keyEvent.getCode() == KeyCode.Q) {
             System.exit(0);
         } else if (keyEvent.getCode() == KeyCode.LEFT) {
-            controlProperties.decrementTestTime();
+            updater.execute(logErrors(() -> {
+                controlProperties.decrementTestTime();
+                update();
+            }));
         } else if (keyEvent.getCode() == KeyCode.RIGHT) {
-            controlProperties.incrementTestTime();
+            updater.execute(logErrors(() -> {
+                controlProperties.incrementTestTime();
+                update();
+            }));
         } else if (keyEvent.getCode() == KeyCode.U) {
-            update();
+            updater.execute(logErrors(this::update));
         } else if (keyEvent.getCode() == KeyCode.D) {
-            updateData();
+            refreshScheduler.refreshNow();
         }
     }
 }
@@ -8,17 +8,19 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.PauseTransition;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.geometry.Pos;
 import javafx.scene.Group;
+import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
@@ -38,7 +40,15 @@ public class FXMLDocumentController implements Initializable {
     private static final DateTimeFormatter TIME_FORMAT
         = DateTimeFormatter.ofPattern("HH:mm");
     
+    private static final Metrics.Histogram screenUpdateTime
+        = Metrics.histogram("signage_screen_update_seconds",
+            "Time to put new data on a screen");
+
     private final BooleanProperty offline = new SimpleBooleanProperty(false);
+    private final PauseTransition clockTick = new PauseTransition();
+
+    /* Speaker panels are reused from one session to the next */
+    private final List<SpeakerPanel> speakerPanels = new ArrayList<>();
 
     @FXML
     Label sessionLbl, roomLbl, roomNumber, currentTimeTitleLbl, time,
@@ -95,12 +105,21 @@ public class FXMLDocumentController implements Initializable {
         titleHuge = Font.loadFont(Devoxx.class.getResource("fonts/GillSans.ttc").toExternalForm(), 83);
         setFonts();
 
-        KeyFrame keyFrame = new KeyFrame(Duration.minutes(1),
-            t -> time.setText(LocalTime.now().format(TIME_FORMAT)));
-        Timeline timeline = new Timeline(keyFrame);
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        timeline.getKeyFrames().get(0).getOnFinished().handle(null);
-        timeline.play();
+        clockTick.setOnFinished(t -> updateClock());
+        updateClock();
+    }
+
+    /**
+     * Show the current time and wake up again just after the start of the
+     * next minute, so the clock changes when the minute does
+     */
+    private void updateClock() {
+        LocalTime now = LocalTime.now();
+        time.setText(now.format(TIME_FORMAT));
+        long millisIntoMinute = (now.getSecond() * 1000L)
+            + (now.getNano() / 1000000);
+        clockTick.setDuration(Duration.millis(60000 - millisIntoMinute + 1));
+        clockTick.playFromStart();
     }
 
     /**
@@ -125,82 +144,42 @@ public class FXMLDocumentController implements Initializable {
     }
 
     /**
-     * Set the data for the screen
+     * Set the data for the screen. Everything has already been worked out,
+     * so this only has to put it into the controls
      *
-     * @param mainPreso The main presentation that is on now or next
-     * @param secondPreso The next presentation (if there is one)
-     * @param thirdPreso The presentation after next (if there is one)
+     * @param state What the screen should show
      */
-    public void setScreenData(Presentation mainPreso,
-        Presentation secondPreso, Presentation thirdPreso) {
-        /* Remove current data from the speaker VBox */
-        if (speakersVBox.getChildren() != null) {
-            while (speakersVBox.getChildren().size() > 0) {
-                speakersVBox.getChildren().remove(0);
-            }
-        }
+    public void setScreenData(ScreenState state) {
+        long start = System.nanoTime();
+        sessionTitle.setText(state.sessionTitle);
+        sessionAbstract.setText(state.sessionAbstract);
+        sessionTime.setText(state.sessionTime);
+
+        /* Rebind a panel to each speaker, creating more if needed */
+        List<Node> speakerNodes = new ArrayList<>();
 
-        if (mainPreso != null && mainPreso.title != null) {
-            sessionTitle.setText((mainPreso.title).toUpperCase());
-            sessionAbstract.setText(mainPreso.summary);
-            sessionTime.setText(mainPreso.fromTime.format(TIME_FORMAT) + " - "
-                + mainPreso.toTime.format(TIME_FORMAT));
-
-            /**
-             * Sort out the speaker photos and names. This has proved to be
-             * incredibly difficult, I know not why. There seems to be some
-             * weirdness with some of the photos so they occupy a bigger space
-             * than they should which screws things up (if we just use a simple
-             * VBox). This still does not work properly (Mark Reinhold is a good
-             * test case)
-             */
-            for (Speaker speaker : mainPreso.speakers) {
-
-                VBox speakerBox = new VBox();
-                speakerBox.setSpacing(5);
-                HBox photoBox = new HBox();
-                photoBox.setAlignment(Pos.CENTER);
-                photoBox.getChildren().add(speaker.getPhoto());
-                speakerBox.getChildren().add(photoBox);
-
-                HBox nameBox = new HBox();
-                nameBox.setAlignment(Pos.CENTER);
-                Label name = new Label(speaker.fullName.toUpperCase());
-                name.setFont(lightFont);
-                nameBox.getChildren().add(name);
-                speakerBox.getChildren().add(nameBox);
-
-                speakersVBox.getChildren().add(speakerBox);
+        for (int i = 0; i < state.speakers.size(); i++) {
+            if (i == speakerPanels.size()) {
+                speakerPanels.add(new SpeakerPanel());
             }
 
-            talk1Title.setText(mainPreso.title);
-            talk1Time.setText(mainPreso.fromTime.format(TIME_FORMAT) + " - "
-                + mainPreso.toTime.format(TIME_FORMAT));
-        } else {
-            sessionTitle.setText("");
-            sessionAbstract.setText("");
-            sessionTime.setText("");
-            talk1Title.setText("");
-            talk1Time.setText("");
+            SpeakerPanel panel = speakerPanels.get(i);
+            panel.setSpeaker(state.speakers.get(i));
+            speakerNodes.add(panel.speakerBox);
         }
 
-        if (secondPreso != null) {
-            talk2Title.setText(secondPreso.title);
-            talk2Time.setText(secondPreso.fromTime.format(TIME_FORMAT) + " - "
-                + secondPreso.toTime.format(TIME_FORMAT));
-        } else {
-            talk2Title.setText("");
-            talk2Time.setText("");
+        /* Only touch the scene graph if the panels shown have changed */
+        if (!speakersVBox.getChildren().equals(speakerNodes)) {
+            speakersVBox.getChildren().setAll(speakerNodes);
         }
 
-        if (thirdPreso != null) {
-            talk3Title.setText(thirdPreso.title);
-            talk3Time.setText(thirdPreso.fromTime.format(TIME_FORMAT) + " - "
-                + thirdPreso.toTime.format(TIME_FORMAT));
-        } else {
-            talk3Title.setText("");
-            talk3Time.setText("");
-        }
+        talk1Title.setText(state.talk1Title);
+        talk1Time.setText(state.talk1Time);
+        talk2Title.setText(state.talk2Title);
+        talk2Time.setText(state.talk2Time);
+        talk3Title.setText(state.talk3Title);
+        talk3Time.setText(state.talk3Time);
+        screenUpdateTime.observeSince(start);
     }
     
     public void setOnline() {
@@ -239,4 +218,46 @@ public class FXMLDocumentController implements Initializable {
         roomNumber.setText(room);
     }
 
+    /**
+     * The photo and name of a speaker. Sort out the speaker photos and names.
+     * This has proved to be incredibly difficult, I know not why. There seems
+     * to be some weirdness with some of the photos so they occupy a bigger
+     * space than they should which screws things up (if we just use a simple
+     * VBox). Fitting the photo to a fixed size inside its own HBox keeps them
+     * in line.
+     */
+    private class SpeakerPanel {
+
+        private final VBox speakerBox = new VBox();
+        private final ImageView photo = new ImageView();
+        private final Label name = new Label();
+
+        /**
+         * Constructor
+         */
+        SpeakerPanel() {
+            speakerBox.setSpacing(5);
+            photo.setFitWidth(PhotoCache.PHOTO_SIZE);
+            photo.setFitHeight(PhotoCache.PHOTO_SIZE);
+            photo.setPreserveRatio(true);
+            photo.setClip(new Circle(PhotoCache.PHOTO_SIZE / 2,
+                PhotoCache.PHOTO_SIZE / 2, PhotoCache.PHOTO_SIZE / 2));
+            HBox photoBox = new HBox(photo);
+            photoBox.setAlignment(Pos.CENTER);
+            name.setFont(lightFont);
+            HBox nameBox = new HBox(name);
+            nameBox.setAlignment(Pos.CENTER);
+            speakerBox.getChildren().addAll(photoBox, nameBox);
+        }
+
+        /**
+         * Show a different speaker in this panel
+         *
+         * @param speaker The speaker to show
+         */
+        void setSpeaker(ScreenState.SpeakerState speaker) {
+            photo.setImage(speaker.photo);
+            name.setText(speaker.name);
+        }
+    }
 }
@@ -0,0 +1,305 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes all the requests for the data and the photos, so they share the
+ * same timeouts and connections.
+ *
+ * HttpURLConnection keeps connections alive between requests to the same
+ * host, but only for responses that have been read to the end (or that
+ * had no body) and closed, and only as many of them as http.maxConnections
+ * (5 by default). Every response is therefore drained when it is closed,
+ * error responses included, and no more than maxPerHost requests go to the
+ * same host at once, with the cache sized to match, so the data and photo
+ * downloads reuse a few connections rather than opening one each.
+ *
+ * Background requests (the photos, which there are hundreds of) can only
+ * have maxPerHost - 1 of those at once, so a refresh of the data never
+ * queues behind a batch of photos for the same host.
+ *
+ * The push listener's stream of changes doesn't come through here: it is
+ * held open indefinitely, so it would hold a connection for good, and it
+ * has its own read timeout.
+ *
+ * HTTP/2 would need java.net.http, which isn't in Java 8, so this is
+ * HTTP/1.1 with keep-alive.
+ */
+public class HttpFetcher {
+
+  /* Drain at most this much of an unread body to keep its connection */
+  private static final int DRAIN_LIMIT = 64 * 1024;
+
+  private static final Metrics.Histogram waitTime = Metrics.histogram(
+      "signage_http_wait_seconds",
+      "Time requests waited for a connection to their host");
+
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final int maxPerHost;
+  private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param connectTimeout How long to wait to connect, or for another
+   * request to the same host to finish (in seconds)
+   * @param readTimeout How long to wait for the server to send anything (in
+   * seconds)
+   * @param maxPerHost The most requests to make to the same host at once
+   */
+  public HttpFetcher(int connectTimeout, int readTimeout, int maxPerHost) {
+    this.connectTimeout = connectTimeout * 1000;
+    this.readTimeout = readTimeout * 1000;
+    this.maxPerHost = maxPerHost;
+
+    /* Only read when the first connection is made, so keep as many idle
+     * connections as there can be busy ones, unless told otherwise
+     */
+    if (System.getProperty("http.maxConnections") == null) {
+      System.setProperty("http.maxConnections", String.valueOf(maxPerHost));
+    }
+  }
+
+  /**
+   * Request a URL, waiting if there are already maxPerHost requests to its
+   * host. The response must be closed, which releases the connection
+   *
+   * @param url The URL
+   * @return The response
+   * @throws IOException If the request fails or the server answers with an
+   * error
+   */
+  public Response get(String url) throws IOException {
+    return get(url, Collections.emptyMap());
+  }
+
+  /**
+   * Request a URL, waiting if there are already maxPerHost requests to its
+   * host. The response must be closed, which releases the connection
+   *
+   * @param url The URL
+   * @param headers Extra request headers
+   * @return The response
+   * @throws IOException If the request fails or the server answers with an
+   * error
+   */
+  public Response get(String url, Map<String, String> headers)
+      throws IOException {
+    return get(url, headers, false);
+  }
+
+  /**
+   * Request a URL, waiting if there are already maxPerHost requests to its
+   * host, or maxPerHost - 1 background ones. The response must be closed,
+   * which releases the connection
+   *
+   * @param url The URL
+   * @param headers Extra request headers
+   * @param background Whether this is one of many requests that can wait,
+   * e.g. for a photo, so should leave a connection for the others
+   * @return The response
+   * @throws IOException If the request fails or the server answers with an
+   * error
+   */
+  public Response get(String url, Map<String, String> headers,
+      boolean background) throws IOException {
+    URL target = new URL(url);
+    Host host = null;
+
+    if (target.getProtocol().startsWith("http")) {
+      int port = target.getPort() < 0 ? target.getDefaultPort()
+          : target.getPort();
+      host = hosts.computeIfAbsent(target.getHost() + ":" + port,
+          key -> new Host(maxPerHost));
+      host.acquire(target.getHost(), background);
+    }
+
+    Response response;
+
+    try {
+      URLConnection connection = target.openConnection();
+      connection.setConnectTimeout(connectTimeout);
+      connection.setReadTimeout(readTimeout);
+      headers.forEach(connection::setRequestProperty);
+      response = new Response(connection, host, background);
+    } catch (IOException | RuntimeException e) {
+      if (host != null) {
+        host.release(background);
+      }
+
+      throw e;
+    }
+
+    if (response.getStatus() >= 400) {
+      response.close();
+      throw new IOException("Server returned HTTP " + response.getStatus());
+    }
+
+    return response;
+  }
+
+  /**
+   * Get how long a request waits for the server to send anything
+   *
+   * @return The read timeout (in milliseconds)
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * The connections to a host. Every request takes one of the host's
+   * permits; a background request first takes one of the background
+   * permits, of which there is one fewer
+   */
+  private final class Host {
+
+    private final Semaphore permits;
+    private final Semaphore backgroundPermits;
+
+    Host(int maxPerHost) {
+      permits = new Semaphore(maxPerHost, true);
+      backgroundPermits = new Semaphore(Math.max(1, maxPerHost - 1), true);
+    }
+
+    void acquire(String name, boolean background) throws IOException {
+      long start = System.nanoTime();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+      boolean reserved = false;
+      boolean acquired = false;
+
+      try {
+        if (background) {
+          reserved = backgroundPermits.tryAcquire(connectTimeout,
+              TimeUnit.MILLISECONDS);
+        }
+
+        acquired = (reserved || !background) && permits.tryAcquire(
+            Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for " + name);
+      } finally {
+        if (reserved && !acquired) {
+          backgroundPermits.release();
+        }
+
+        waitTime.observeSince(start);
+      }
+
+      if (!acquired) {
+        throw new IOException("Timed out waiting for a connection to " + name);
+      }
+    }
+
+    void release(boolean background) {
+      permits.release();
+
+      if (background) {
+        backgroundPermits.release();
+      }
+    }
+  }
+
+  /**
+   * A response. Closing it reads whatever is left of the body so the
+   * connection can be used again, and lets the next request to the host go
+   */
+  public static final class Response implements AutoCloseable {
+
+    private final URLConnection connection;
+    private final int status;
+    private final Host host;
+    private final boolean background;
+    private InputStream body;
+    private boolean closed;
+
+    private Response(URLConnection connection, Host host, boolean background)
+        throws IOException {
+      this.connection = connection;
+      this.host = host;
+      this.background = background;
+      status = connection instanceof HttpURLConnection
+          ? ((HttpURLConnection) connection).getResponseCode() : 200;
+    }
+
+    /**
+     * Get the status code
+     *
+     * @return The HTTP status code (200 for anything not HTTP)
+     */
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * Get a response header
+     *
+     * @param name The name of the header
+     * @return Its value or null if there isn't one
+     */
+    public String getHeader(String name) {
+      return connection.getHeaderField(name);
+    }
+
+    /**
+     * Get the body. It doesn't need closing itself, closing the response
+     * does that
+     *
+     * @return The body as it arrives
+     * @throws IOException If it cannot be read
+     */
+    public InputStream getBody() throws IOException {
+      if (body == null) {
+        body = connection.getInputStream();
+      }
+
+      return body;
+    }
+
+    /**
+     * Finish with the response
+     */
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+
+      try (InputStream in = status >= 400
+          ? ((HttpURLConnection) connection).getErrorStream() : getBody()) {
+        if (in != null) {
+          byte[] buffer = new byte[8192];
+          int drained = 0;
+          int n;
+
+          while (drained < DRAIN_LIMIT && (n = in.read(buffer)) > 0) {
+            drained += n;
+          }
+        }
+      } catch (IOException ioe) {
+        /* The connection won't be reused, which is all we lose */
+      } finally {
+        if (host != null) {
+          host.release(background);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,576 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A hub fetches the data and speaker photos once, for all the rooms, and
+ * serves them to the screens, so however many screens there are the web
+ * service only sees one of them. It has no screen of its own, so runs
+ * without JavaFX.
+ *
+ * The data is served at /api/ in the same layout as the web service
+ * (speakers and rooms/room/day), exactly as it was downloaded, so a screen
+ * only has to point devoxx-host at the hub. Photos are served at
+ * /photos/uuid as the thumbnails from the hub's photo cache, so are
+ * already cropped and scaled; screens get them by setting photo-host.
+ *
+ * Everything has an ETag and Last-Modified, so screens that already have
+ * the latest version get a 304, and the data is gzipped for screens that
+ * accept it.
+ *
+ * Screens that set push-url to /events are sent the changes to the
+ * schedule (as Server-Sent Events) as soon as the hub finds them, so only
+ * the hub needs to poll the web service often.
+ */
+public class Hub {
+
+  private static final DateTimeFormatter HTTP_DATE
+      = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+  private static final String JSON_TYPE = "application/json; charset=UTF-8";
+  private static final String PNG_TYPE = "image/png";
+  private static final int SERVER_THREADS = 8;
+  private static final long KEEPALIVE = 30;
+  private static final int EVENT_QUEUE = 16;
+
+  /* Queued to tell a screen's event writer to finish */
+  private static final byte[] STOP = new byte[0];
+
+  private static final Metrics.Counter notModified = Metrics.counter(
+      "signage_hub_not_modified_total", "Requests answered with a 304");
+  private static final Metrics.Counter bytesSent = Metrics.counter(
+      "signage_hub_bytes_total", "Bytes of data and photos sent to screens");
+
+  private final Logger logger;
+  private final ControlProperties controlProperties;
+  private final DataFetcher dataFetcher;
+  private final HttpServer server;
+  private final Map<Path, CachedFile> files = new ConcurrentHashMap<>();
+  private final List<EventClient> eventClients = new CopyOnWriteArrayList<>();
+  private final AtomicLong eventId = new AtomicLong();
+  private final ScheduledExecutorService updater
+      = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hub-updater");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Constructor
+   *
+   * @param logger Where to log messages to
+   * @param controlProperties The configuration
+   * @param rooms The rooms of all the screens
+   * @throws IOException If the hub's port cannot be listened on
+   */
+  public Hub(Logger logger, ControlProperties controlProperties,
+      List<String> rooms) throws IOException {
+    this.logger = logger;
+    this.controlProperties = controlProperties;
+    dataFetcher = new DataFetcher(logger, controlProperties, rooms);
+    server = HttpServer.create(
+        new InetSocketAddress(controlProperties.getHubPort()), 0);
+    server.createContext("/api/", this::serveData);
+    server.createContext("/photos/", this::servePhoto);
+    server.createContext("/events", this::serveEvents);
+    server.setExecutor(Executors.newFixedThreadPool(SERVER_THREADS, r -> {
+      Thread thread = new Thread(r, "hub");
+      thread.setDaemon(true);
+      return thread;
+    }));
+    Metrics.gauge("signage_hub_event_clients",
+        "Screens listening for changes", eventClients::size);
+  }
+
+  /**
+   * Run a hub
+   *
+   * @param args The rooms of all the screens (separated by commas) and
+   * optionally the properties file
+   */
+  public static void main(String[] args) {
+    if (args.length == 0 || args[0].isEmpty()) {
+      System.out.println("Please specify the rooms to serve");
+      System.exit(1);
+    }
+
+    List<String> rooms = Arrays.asList(args[0].split(","));
+    ControlProperties controlProperties
+        = new ControlProperties(args.length > 1 ? args[1] : null);
+    Logger logger = Logger.getLogger(Hub.class.getName());
+    ConsoleHandler consoleHandler = new ConsoleHandler();
+    logger.setLevel(controlProperties.getLoggingLevel());
+    logger.setUseParentHandlers(false);
+    consoleHandler.setLevel(controlProperties.getLoggingLevel());
+    logger.addHandler(consoleHandler);
+
+    try {
+      new Hub(logger, controlProperties, rooms).start();
+    } catch (IOException ioe) {
+      System.err.println("Unable to serve on port "
+          + controlProperties.getHubPort() + ": " + ioe.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Get the data and start serving it. The data is refreshed every
+   * data-refresh-time minutes, as a screen would, and retried sooner when
+   * that fails
+   */
+  public void start() {
+    int metricsPort = controlProperties.getMetricsPort();
+
+    if (metricsPort > 0) {
+      try {
+        new MetricsServer(logger, metricsPort).start();
+      } catch (IOException ioe) {
+        logger.warning("Unable to serve metrics on port " + metricsPort
+            + " (" + ioe.getMessage() + ")");
+      }
+    }
+
+    /* Until there is data the screens are told there isn't (404), so they
+     * keep whatever they have and back off
+     */
+    dataFetcher.loadSnapshot();
+    boolean refreshed = dataFetcher.updateData() && dataFetcher.isReachable();
+
+    if (!refreshed) {
+      logger.severe("Error retrieving initial data from server, "
+          + "will keep trying");
+    }
+
+    RefreshScheduler refreshScheduler = new RefreshScheduler(logger, updater,
+        TimeUnit.MINUTES.toMillis(controlProperties.getDataRefreshTime()),
+        this::refresh, () -> false);
+    refreshScheduler.start(refreshed);
+    updater.scheduleAtFixedRate(() -> broadcast(": keepalive\n\n"),
+        KEEPALIVE, KEEPALIVE, TimeUnit.SECONDS);
+
+    /* The server's dispatcher thread is not a daemon, so keeps us running */
+    server.start();
+    logger.info("Hub serving on port " + server.getAddress().getPort());
+  }
+
+  /**
+   * Get the latest data and tell the screens listening what changed.
+   * Called on the updater thread
+   *
+   * @return Whether the server answered
+   */
+  private boolean refresh() {
+    if (!dataFetcher.updateData()) {
+      return false;
+    }
+
+    if (!dataFetcher.getLastChanges().isEmpty()) {
+      publish(dataFetcher.getLastChanges());
+    }
+
+    return dataFetcher.isReachable();
+  }
+
+  /**
+   * Serve the cached data from the web service
+   *
+   * @param exchange The request and response
+   * @throws IOException If the response cannot be sent
+   */
+  private void serveData(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath()
+          .substring("/api/".length());
+      Path file = dataFetcher.getCacheFile(path);
+      CachedFile cached = file == null ? null : load(file);
+
+      if (cached == null) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+
+      byte[] body = cached.bytes;
+      Headers headers = exchange.getResponseHeaders();
+
+      if (acceptsGzip(exchange)) {
+        body = cached.gzipped();
+        headers.set("Content-Encoding", "gzip");
+      }
+
+      headers.set("Vary", "Accept-Encoding");
+      send(exchange, cached.etag, cached.lastModified, JSON_TYPE, body);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Serve the thumbnail of a speaker's photo. The version in the query
+   * must be that of the photo we have, otherwise the speaker has a new
+   * photo we haven't got yet, so we say we haven't got it and the screen
+   * tries again later
+   *
+   * @param exchange The request and response
+   * @throws IOException If the response cannot be sent
+   */
+  private void servePhoto(HttpExchange exchange) throws IOException {
+    try {
+      String uuid = exchange.getRequestURI().getPath()
+          .substring("/photos/".length());
+      String query = exchange.getRequestURI().getQuery();
+      PhotoCache.Thumbnail thumbnail
+          = dataFetcher.getPhotoCache().getThumbnail(uuid);
+
+      if (thumbnail == null || (query != null && !query.equals(
+          "v=" + PhotoCache.version(thumbnail.sourceURL)))) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+
+      send(exchange, "\"" + thumbnail.hash + "\"", null, PNG_TYPE,
+          thumbnail.png);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Start sending a screen the changes to the schedule. The response never
+   * ends; the exchange is kept until the screen goes away
+   *
+   * @param exchange The request and response
+   * @throws IOException If the response cannot be sent
+   */
+  private void serveEvents(HttpExchange exchange) throws IOException {
+    Headers headers = exchange.getResponseHeaders();
+    headers.set("Content-Type", "text/event-stream; charset=UTF-8");
+    headers.set("Cache-Control", "no-cache");
+
+    if (!exchange.getRequestMethod().equals("GET")) {
+      exchange.sendResponseHeaders(405, -1);
+      exchange.close();
+      return;
+    }
+
+    try {
+      exchange.sendResponseHeaders(200, 0);
+    } catch (IOException ioe) {
+      exchange.close();
+      throw ioe;
+    }
+
+    EventClient client = new EventClient(exchange);
+    client.offer(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+    eventClients.add(client);
+    client.start();
+    logger.fine("Screen " + exchange.getRemoteAddress()
+        + " listening for changes");
+  }
+
+  /**
+   * Tell all the listening screens about changes to the schedule
+   *
+   * @param changes The changes
+   */
+  private void publish(ScheduleChanges changes) {
+    logger.fine("Pushing changes to " + eventClients.size() + " screens");
+    broadcast("id: " + eventId.incrementAndGet() + "\nevent: changes\ndata: "
+        + changes.toJson() + "\n\n");
+  }
+
+  /**
+   * Queue an event for all the listening screens. This never waits for a
+   * screen, so a screen that has stopped reading can't hold up the refresh;
+   * one that has fallen too far behind is dropped, and can reconnect
+   *
+   * @param event The event, including the blank line that ends it
+   */
+  private void broadcast(String event) {
+    byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+
+    for (EventClient client : eventClients) {
+      if (!client.offer(bytes)) {
+        logger.warning("Screen " + client.exchange.getRemoteAddress()
+            + " isn't reading the changes, dropping it");
+        client.stop();
+      }
+    }
+  }
+
+  /**
+   * A screen listening for changes. Its events are queued and written on
+   * its own (daemon) thread, so if the screen stops reading and the write
+   * blocks, only that thread waits
+   */
+  private final class EventClient implements Runnable {
+
+    private final HttpExchange exchange;
+    private final BlockingQueue<byte[]> queue
+        = new ArrayBlockingQueue<>(EVENT_QUEUE);
+
+    EventClient(HttpExchange exchange) {
+      this.exchange = exchange;
+    }
+
+    void start() {
+      Thread thread = new Thread(this, "hub-events");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    /**
+     * Queue an event to send
+     *
+     * @param event The event
+     * @return False if the queue is full
+     */
+    boolean offer(byte[] event) {
+      return queue.offer(event);
+    }
+
+    /**
+     * Stop sending events, dropping any still queued
+     */
+    void stop() {
+      eventClients.remove(this);
+      queue.clear();
+      queue.offer(STOP);
+    }
+
+    @Override
+    public void run() {
+      try {
+        OutputStream out = exchange.getResponseBody();
+        byte[] event;
+
+        while ((event = queue.take()) != STOP) {
+          out.write(event);
+          out.flush();
+        }
+      } catch (IOException ioe) {
+        logger.fine("Screen " + exchange.getRemoteAddress()
+            + " stopped listening for changes");
+      } catch (InterruptedException ie) {
+        /* Only daemon threads are interrupted, on exit */
+      } finally {
+        eventClients.remove(this);
+        exchange.close();
+      }
+    }
+  }
+
+  /**
+   * Send a response, or a 304 if the screen already has it
+   *
+   * @param exchange The request and response
+   * @param etag The ETag of the response
+   * @param lastModified When the response last changed, or null
+   * @param contentType The type of the body
+   * @param body The body
+   * @throws IOException If the response cannot be sent
+   */
+  private void send(HttpExchange exchange, String etag, Instant lastModified,
+      String contentType, byte[] body) throws IOException {
+    Headers headers = exchange.getResponseHeaders();
+    headers.set("ETag", etag);
+    headers.set("Cache-Control", "no-cache");
+
+    if (lastModified != null) {
+      headers.set("Last-Modified", HTTP_DATE.format(lastModified));
+    }
+
+    if (isNotModified(exchange.getRequestHeaders(), etag, lastModified)) {
+      notModified.inc();
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+
+    headers.set("Content-Type", contentType);
+
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      exchange.sendResponseHeaders(200, -1);
+      return;
+    }
+
+    exchange.sendResponseHeaders(200, body.length);
+
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+
+    bytesSent.add(body.length);
+  }
+
+  /**
+   * Check the validators of a conditional request. If-None-Match wins over
+   * If-Modified-Since when there are both
+   *
+   * @param request The request headers
+   * @param etag The ETag of what we have
+   * @param lastModified When what we have last changed, or null
+   * @return Whether the screen already has what we have
+   */
+  private static boolean isNotModified(Headers request, String etag,
+      Instant lastModified) {
+    String ifNoneMatch = request.getFirst("If-None-Match");
+
+    if (ifNoneMatch != null) {
+      return ifNoneMatch.equals(etag) || ifNoneMatch.equals("*");
+    }
+
+    String ifModifiedSince = request.getFirst("If-Modified-Since");
+
+    if (ifModifiedSince == null || lastModified == null) {
+      return false;
+    }
+
+    try {
+      Instant since = ZonedDateTime.parse(ifModifiedSince,
+          DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+      return !lastModified.isAfter(since);
+    } catch (DateTimeParseException dtpe) {
+      return false;
+    }
+  }
+
+  private static boolean acceptsGzip(HttpExchange exchange) {
+    String acceptEncoding
+        = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+    if (acceptEncoding == null) {
+      return false;
+    }
+
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Get the contents of a cache file, reading it again only if it has
+   * changed since we last did
+   *
+   * @param file The file
+   * @return The contents or null if there is no such file (yet)
+   * @throws IOException If the file cannot be read
+   */
+  private CachedFile load(Path file) throws IOException {
+    long modified;
+
+    try {
+      modified = Files.getLastModifiedTime(file).toMillis();
+    } catch (NoSuchFileException nsfe) {
+      return null;
+    }
+
+    CachedFile cached = files.get(file);
+
+    if (cached == null || cached.modified != modified) {
+      cached = new CachedFile(Files.readAllBytes(file), modified);
+      files.put(file, cached);
+    }
+
+    return cached;
+  }
+
+  /**
+   * The contents of a cache file, with its validators and (once a screen
+   * has asked for it) a gzipped copy. If the cache file is gzipped itself
+   * (compress-cache) that is the gzipped copy and the contents are
+   * decompressed from it
+   */
+  private static final class CachedFile {
+
+    final byte[] bytes;
+    final long modified;
+    final String etag;
+    final Instant lastModified;
+    private byte[] gzipped;
+
+    CachedFile(byte[] bytes, long modified) throws IOException {
+      if (bytes.length > 1 && (bytes[0] & 0xff) == 0x1f
+          && (bytes[1] & 0xff) == 0x8b) {
+        gzipped = bytes;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 8);
+
+        try (InputStream in
+            = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+          byte[] buffer = new byte[8192];
+          int n;
+
+          while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+          }
+        }
+
+        bytes = out.toByteArray();
+      }
+
+      this.bytes = bytes;
+      this.modified = modified;
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      etag = "\"" + Long.toHexString(crc.getValue()) + "-"
+          + Integer.toHexString(bytes.length) + "\"";
+
+      /* HTTP dates are to the second */
+      lastModified = Instant.ofEpochSecond(modified / 1000);
+    }
+
+    synchronized byte[] gzipped() throws IOException {
+      if (gzipped == null) {
+        ByteArrayOutputStream out
+            = new ByteArrayOutputStream(bytes.length / 4);
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+          gzip.write(bytes);
+        }
+
+        gzipped = out.toByteArray();
+      }
+
+      return gzipped;
+    }
+  }
+}
@@ -0,0 +1,774 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import devoxx.JSONParserJP.Callback;
+import devoxx.JSONParserJP.KeyedCallback;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Byte level engine for JSONParserJP. Rather than decoding the whole input
+ * into chars through a Reader, this tokenizes the raw UTF-8 bytes (of a
+ * memory-mapped file or a stream as it arrives) and only decodes the content
+ * of string tokens, straight into a reusable char buffer.
+ *
+ * Fires exactly the same events as JSONParserJP.parse(Reader, Callback), so
+ * callbacks can be used with either engine. For a KeyedCallback keys are
+ * matched as bytes against a JSONKeyTable and the values of keys that were
+ * not registered are skipped without being decoded at all.
+ */
+final class JSONByteParser {
+
+    private static final int NONE = 0;
+    private static final int STRING = 1;
+    private static final int NUMBER = 2;
+    private static final int BOOLEAN = 3;
+    private static final int NULL = 4;
+    private static final int SKIPPED = 5;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final ByteBuffer buf;
+    private final InputStream in;
+    private final OutputStream spool;
+    private int limit;
+    private int pos;
+    private long consumed;
+    private char[] chars = new char[1024];
+    private int charCount;
+    private byte[] keyBytes = new byte[64];
+    private final CharSequence value = new CharView();
+
+    /**
+     * Constructor
+     *
+     * @param buf The UTF-8 encoded JSON, from its position to its limit
+     */
+    JSONByteParser(ByteBuffer buf) {
+        this.buf = buf;
+        this.in = null;
+        this.spool = null;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+    }
+
+    /**
+     * Constructor for parsing a stream as it arrives, optionally copying
+     * every byte read to a spool stream (e.g. the cache file) on the way
+     *
+     * @param in The UTF-8 encoded JSON
+     * @param spool Where to copy the raw bytes to, or null
+     */
+    JSONByteParser(InputStream in, OutputStream spool) {
+        this.buf = ByteBuffer.allocate(8192);
+        this.in = in;
+        this.spool = spool;
+        this.pos = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Memory-map the given file and parse it, or if it is gzipped parse it as
+     * it is decompressed
+     *
+     * @param file The file to parse
+     * @param callback The callback to fire events into
+     * @throws IOException If the file cannot be read or is not valid JSON
+     */
+    static void parse(Path file, Callback callback) throws IOException {
+        if (isGzipped(file)) {
+            try (InputStream in = gunzip(file)) {
+                new JSONByteParser(in, null).parse(callback);
+            }
+        } else {
+            new JSONByteParser(map(file)).parse(callback);
+        }
+    }
+
+    /**
+     * Memory-map the given file and parse it, or if it is gzipped parse it as
+     * it is decompressed
+     *
+     * @param file The file to parse
+     * @param callback The callback to fire events into
+     * @throws IOException If the file cannot be read or is not valid JSON
+     */
+    static void parse(Path file, KeyedCallback callback) throws IOException {
+        if (isGzipped(file)) {
+            try (InputStream in = gunzip(file)) {
+                new JSONByteParser(in, null).parse(callback);
+            }
+        } else {
+            new JSONByteParser(map(file)).parse(callback);
+        }
+    }
+
+    /**
+     * Parse a stream as it arrives, copying the raw bytes to a spool stream
+     *
+     * @param in The stream to parse
+     * @param spool Where to copy the bytes read, or null
+     * @param callback The callback to fire events into
+     * @throws IOException If the stream cannot be read or is not valid JSON
+     */
+    static void parse(InputStream in, OutputStream spool,
+        KeyedCallback callback) throws IOException {
+        new JSONByteParser(in, spool).parse(callback);
+    }
+
+    /**
+     * Check for the gzip magic number. JSON can't start with it, so cache
+     * files written either way can be told apart
+     *
+     * @param file The file to check
+     * @return Whether the file is gzipped
+     * @throws IOException If the file cannot be read
+     */
+    static boolean isGzipped(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    private static InputStream gunzip(Path file) throws IOException {
+        return new GZIPInputStream(
+            new BufferedInputStream(Files.newInputStream(file)), 8192);
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel
+            = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Parse the buffer and fire the data into the given callback
+     *
+     * @param callback The callback to fire events into
+     * @throws IOException If the data is not valid JSON
+     */
+    void parse(Callback callback) throws IOException {
+        List<String> blocks = new ArrayList<>();
+        String key = null;
+        String closingName;
+        int valueType = NONE;
+        int depth = 0;
+        boolean seen = false;
+
+        while (pos < limit || fill()) {
+            byte b = buf.get(pos++);
+
+            if (b == ' ' || b == '\r' || b == '\t' || b == '\n') {
+                continue;
+            }
+
+            seen = true;
+
+            switch (b) {
+                case '{':
+                    if (callback.startObject(key, depth)) {
+                        skipBlock();
+                    } else {
+                        blocks.add(key);
+                        depth++;
+                    }
+
+                    key = null;
+                    valueType = NONE;
+                    continue;
+                case '[':
+                    if (callback.startArray(key, depth)) {
+                        skipBlock();
+                    } else {
+                        blocks.add(key);
+                        depth++;
+                    }
+
+                    key = null;
+                    valueType = NONE;
+                    continue;
+                case '}':
+                    emitValue(callback, key, valueType, depth);
+                    depth--;
+                    closingName = blocks.isEmpty()
+                        ? null : blocks.remove(blocks.size() - 1);
+                    callback.endObject(closingName, depth);
+                    key = null;
+                    valueType = NONE;
+                    continue;
+                case ']':
+                    emitValue(callback, key, valueType, depth);
+                    depth--;
+                    closingName = blocks.isEmpty()
+                        ? null : blocks.remove(blocks.size() - 1);
+                    callback.endArray(closingName, depth);
+                    key = null;
+                    valueType = NONE;
+                    continue;
+                case ':':
+                    key = new String(chars, 0, charCount);
+                    valueType = NONE;
+                    continue;
+                case ',':
+                    emitValue(callback, key, valueType, depth);
+                    key = null;
+                    valueType = NONE;
+                    continue;
+                case '"':
+                    readString();
+                    valueType = STRING;
+                    continue;
+                case 't':
+                    readKeyword("true");
+                    valueType = BOOLEAN;
+                    continue;
+                case 'f':
+                    readKeyword("false");
+                    valueType = BOOLEAN;
+                    continue;
+                case 'n':
+                    readKeyword("null");
+                    charCount = 0;
+                    valueType = NULL;
+                    continue;
+                default:
+                    if (b == '-' || (b >= '0' && b <= '9')) {
+                        readNumber(b);
+                        valueType = NUMBER;
+                        continue;
+                    }
+
+                    throw new IOException("JSON Parse exception: found '"
+                        + (char) (b & 0xFF) + "' at byte["
+                        + (consumed + pos - 1) + "]");
+            }
+        }
+
+        checkComplete(seen, depth);
+    }
+
+    /**
+     * Parse the buffer and fire the data into the given keyed callback. Only
+     * keys registered by the callback are resolved, and only their values are
+     * decoded; everything else is scanned over without allocating.
+     *
+     * @param callback The callback to fire events into
+     * @throws IOException If the data is not valid JSON
+     */
+    void parse(KeyedCallback callback) throws IOException {
+        JSONKeyTable keyTable = new JSONKeyTable(callback.keys());
+        int[] blocks = new int[16];
+        boolean[] objects = new boolean[16];
+        int key = JSONParserJP.UNKNOWN_KEY;
+        int closingKey;
+        boolean expectKey = false;
+        int valueType = NONE;
+        int depth = 0;
+        boolean seen = false;
+
+        while (pos < limit || fill()) {
+            byte b = buf.get(pos++);
+
+            if (b == ' ' || b == '\r' || b == '\t' || b == '\n') {
+                continue;
+            }
+
+            seen = true;
+
+            switch (b) {
+                case '{':
+                case '[':
+                    boolean skip = b == '{'
+                        ? callback.startObject(key, depth)
+                        : callback.startArray(key, depth);
+
+                    if (skip) {
+                        skipBlock();
+                        key = JSONParserJP.UNKNOWN_KEY;
+                        expectKey = false;
+                        valueType = NONE;
+                        continue;
+                    }
+
+                    if (depth == blocks.length) {
+                        blocks = Arrays.copyOf(blocks, depth * 2);
+                        objects = Arrays.copyOf(objects, depth * 2);
+                    }
+
+                    blocks[depth] = key;
+                    objects[depth] = b == '{';
+                    depth++;
+                    key = JSONParserJP.UNKNOWN_KEY;
+                    expectKey = b == '{';
+                    valueType = NONE;
+                    continue;
+                case '}':
+                case ']':
+                    emitValue(callback, key, valueType, depth);
+                    depth--;
+                    closingKey = depth >= 0
+                        ? blocks[depth] : JSONParserJP.UNKNOWN_KEY;
+
+                    if (b == '}') {
+                        callback.endObject(closingKey, depth);
+                    } else {
+                        callback.endArray(closingKey, depth);
+                    }
+
+                    key = JSONParserJP.UNKNOWN_KEY;
+                    expectKey = false;
+                    valueType = NONE;
+                    continue;
+                case ':':
+                    expectKey = false;
+                    continue;
+                case ',':
+                    emitValue(callback, key, valueType, depth);
+                    key = JSONParserJP.UNKNOWN_KEY;
+                    expectKey = depth > 0 && objects[depth - 1];
+                    valueType = NONE;
+                    continue;
+                case '"':
+                    if (expectKey) {
+                        key = readKey(keyTable);
+                    } else if (key != JSONParserJP.UNKNOWN_KEY) {
+                        readString();
+                        valueType = STRING;
+                    } else {
+                        skipString();
+                        valueType = SKIPPED;
+                    }
+                    continue;
+                case 't':
+                    readKeyword("true");
+                    valueType = BOOLEAN;
+                    continue;
+                case 'f':
+                    readKeyword("false");
+                    valueType = BOOLEAN;
+                    continue;
+                case 'n':
+                    readKeyword("null");
+                    charCount = 0;
+                    valueType = NULL;
+                    continue;
+                default:
+                    if (b == '-' || (b >= '0' && b <= '9')) {
+                        readNumber(b);
+                        valueType = NUMBER;
+                        continue;
+                    }
+
+                    throw new IOException("JSON Parse exception: found '"
+                        + (char) (b & 0xFF) + "' at byte["
+                        + (consumed + pos - 1) + "]");
+            }
+        }
+
+        checkComplete(seen, depth);
+    }
+
+    /**
+     * Check the data ended after a whole value. A download cut short, or that
+     * sent nothing at all, otherwise parses without error and would replace
+     * the good cached copy
+     *
+     * @param seen Whether anything other than whitespace was read
+     * @param depth How many objects and arrays are still open
+     * @throws IOException If the data ended early
+     */
+    private void checkComplete(boolean seen, int depth) throws IOException {
+        if (!seen) {
+            throw new IOException("JSON Parse exception: no data");
+        }
+
+        if (depth != 0) {
+            throw new IOException("JSON Parse exception: unexpected end of "
+                + "data at byte[" + (consumed + limit) + "] with " + depth
+                + " objects or arrays still open");
+        }
+    }
+
+    /**
+     * Fire the pending value of a registered key, if there is one. A JSON
+     * null is passed as a null value, everything else as a view of the char
+     * buffer that is only valid for the duration of the call.
+     */
+    private void emitValue(KeyedCallback callback, int key, int valueType,
+        int depth) {
+        if (key == JSONParserJP.UNKNOWN_KEY || valueType == NONE
+            || valueType == SKIPPED) {
+            return;
+        }
+
+        callback.keyValue(key, valueType == NULL ? null : value, depth);
+    }
+
+    /**
+     * Fire the pending primitive value, if there is one. Key/value pairs go
+     * to keyValue (with a JSON null as an empty string, as the Reader engine
+     * does), bare array values go to the typed value methods.
+     */
+    private void emitValue(Callback callback, String key, int valueType,
+        int depth) {
+        if (valueType == NONE) {
+            return;
+        }
+
+        if (key != null) {
+            callback.keyValue(key, new String(chars, 0, charCount), depth);
+            return;
+        }
+
+        switch (valueType) {
+            case NULL:
+                callback.stringValue(null, depth);
+                break;
+            case STRING:
+                callback.stringValue(new String(chars, 0, charCount), depth);
+                break;
+            case BOOLEAN:
+                callback.booleanValue(chars[0] == 't', depth);
+                break;
+            case NUMBER:
+                try {
+                    callback.numberValue(
+                        Double.parseDouble(new String(chars, 0, charCount)),
+                        depth);
+                } catch (NumberFormatException err) {
+                    /* this isn't a numberValue! */
+                }
+                break;
+        }
+    }
+
+    /**
+     * Decode a string token (the opening quote has already been consumed)
+     * into the char buffer, handling escapes and multi-byte UTF-8 sequences.
+     * Malformed UTF-8 is replaced with U+FFFD, the same as a decoding Reader.
+     */
+    private void readString() throws IOException {
+        charCount = 0;
+
+        while (true) {
+            int b = nextByte();
+
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                readEscape();
+            } else if (b >= 0) {
+                append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                int c1 = continuation();
+                append(c1 < 0 ? REPLACEMENT : (char) (((b & 0x1F) << 6) | c1));
+            } else if ((b & 0xF0) == 0xE0) {
+                int c1 = continuation();
+                int c2 = c1 < 0 ? -1 : continuation();
+                append(c2 < 0 ? REPLACEMENT
+                    : (char) (((b & 0x0F) << 12) | (c1 << 6) | c2));
+            } else if ((b & 0xF8) == 0xF0) {
+                int c1 = continuation();
+                int c2 = c1 < 0 ? -1 : continuation();
+                int c3 = c2 < 0 ? -1 : continuation();
+
+                if (c3 < 0) {
+                    append(REPLACEMENT);
+                } else {
+                    int codePoint
+                        = ((b & 0x07) << 18) | (c1 << 12) | (c2 << 6) | c3;
+                    append(Character.highSurrogate(codePoint));
+                    append(Character.lowSurrogate(codePoint));
+                }
+            } else {
+                append(REPLACEMENT);
+            }
+        }
+    }
+
+    /**
+     * Read an object key (the opening quote has already been consumed),
+     * hashing the raw bytes as they go past
+     *
+     * @param keyTable The keys of interest
+     * @return The key id, or JSONParserJP.UNKNOWN_KEY if it is not of interest
+     */
+    private int readKey(JSONKeyTable keyTable) throws IOException {
+        int hash = JSONKeyTable.start();
+        int length = 0;
+        boolean escaped = false;
+
+        while (true) {
+            byte b = (byte) nextByte();
+
+            if (b == '"') {
+                return escaped ? JSONParserJP.UNKNOWN_KEY
+                    : keyTable.lookup(hash, keyBytes, length);
+            }
+
+            if (b == '\\') {
+                /* Registered keys never need escaping, so this can't match */
+                escaped = true;
+                nextByte();
+                continue;
+            }
+
+            if (length == keyBytes.length) {
+                keyBytes = Arrays.copyOf(keyBytes, length * 2);
+            }
+
+            keyBytes[length++] = b;
+            hash = JSONKeyTable.update(hash, b);
+        }
+    }
+
+    /**
+     * Move past the rest of an object or array a callback asked to skip (the
+     * opening bracket has already been consumed). Only quotes, escapes and
+     * brackets are looked at.
+     */
+    private void skipBlock() throws IOException {
+        int nesting = 1;
+
+        while (nesting > 0) {
+            int b = nextByte();
+
+            switch (b) {
+                case '"':
+                    skipString();
+                    break;
+                case '{':
+                case '[':
+                    nesting++;
+                    break;
+                case '}':
+                case ']':
+                    nesting--;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Move past a string token without decoding it (the opening quote has
+     * already been consumed)
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            int b = nextByte();
+
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                nextByte();
+            }
+        }
+    }
+
+    /**
+     * Read an escape sequence (the backslash has already been consumed)
+     */
+    private void readEscape() throws IOException {
+        int b = nextByte();
+
+        switch (b) {
+            case 'n':
+                append('\n');
+                break;
+            case 'r':
+                append('\r');
+                break;
+            case 't':
+                append('\t');
+                break;
+            case 'b':
+                append('\b');
+                break;
+            case 'f':
+                append('\f');
+                break;
+            case 'u':
+                int c = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(nextByte(), 16);
+
+                    if (digit < 0) {
+                        throw new IOException("JSON Parse exception: bad "
+                            + "unicode escape at byte["
+                            + (consumed + pos - 1) + "]");
+                    }
+
+                    c = (c << 4) | digit;
+                }
+
+                append((char) c);
+                break;
+            default:
+                /* \" \\ \/ and anything unknown is taken literally */
+                append((char) (b & 0xFF));
+                break;
+        }
+    }
+
+    /**
+     * Consume a UTF-8 continuation byte
+     *
+     * @return The six payload bits, or -1 (leaving the byte unconsumed) if
+     * the next byte is not a continuation byte
+     */
+    private int continuation() throws IOException {
+        if (pos >= limit && !fill()) {
+            throw new IOException("JSON Parse exception: unexpected end of data");
+        }
+
+        int b = buf.get(pos);
+
+        if ((b & 0xC0) != 0x80) {
+            return -1;
+        }
+
+        pos++;
+        return b & 0x3F;
+    }
+
+    /**
+     * Read the rest of a number token into the char buffer
+     *
+     * @param first The first byte of the number
+     */
+    private void readNumber(byte first) throws IOException {
+        charCount = 0;
+        append((char) first);
+
+        while (pos < limit || fill()) {
+            byte b = buf.get(pos);
+
+            if ((b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E'
+                || b == '-' || b == '+') {
+                append((char) b);
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check the rest of a true/false/null keyword (the first byte has already
+     * been consumed) and leave its text in the char buffer
+     *
+     * @param keyword The expected keyword
+     */
+    private void readKeyword(String keyword) throws IOException {
+        charCount = 0;
+        append(keyword.charAt(0));
+
+        for (int i = 1; i < keyword.length(); i++) {
+            int b = nextByte();
+
+            if (b != keyword.charAt(i)) {
+                throw new IOException("JSON Parse exception: found '"
+                    + (char) (b & 0xFF) + "' when expected '" + keyword.charAt(i)
+                    + "' of \"" + keyword + "\" at byte[" + (consumed + pos - 1)
+                    + "]");
+            }
+
+            append((char) b);
+        }
+    }
+
+    private int nextByte() throws IOException {
+        if (pos >= limit && !fill()) {
+            throw new IOException("JSON Parse exception: unexpected end of data");
+        }
+
+        return buf.get(pos++);
+    }
+
+    /**
+     * Read the next chunk of a stream into the buffer, spooling it on the way
+     *
+     * @return false at the end of the data
+     */
+    private boolean fill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int count = in.read(buf.array());
+
+        if (count < 0) {
+            return false;
+        }
+
+        if (spool != null) {
+            spool.write(buf.array(), 0, count);
+        }
+
+        limit = count;
+        return true;
+    }
+
+    /**
+     * A view of the char buffer handed to keyed callbacks, so that values
+     * only become Strings if the callback decides to keep them
+     */
+    private final class CharView implements CharSequence {
+
+        @Override
+        public int length() {
+            return charCount;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= charCount) {
+                throw new IndexOutOfBoundsException("index " + index);
+            }
+
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > charCount || start > end) {
+                throw new IndexOutOfBoundsException(start + "-" + end);
+            }
+
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, charCount);
+        }
+    }
+
+    private void append(char c) {
+        if (charCount == chars.length) {
+            char[] newChars = new char[chars.length * 2];
+            System.arraycopy(chars, 0, newChars, 0, chars.length);
+            chars = newChars;
+        }
+
+        chars[charCount++] = c;
+    }
+}
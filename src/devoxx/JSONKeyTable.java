@@ -0,0 +1,128 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Perfect hash table of the keys a KeyedCallback is interested in. Keys are
+ * matched against the raw UTF-8 bytes of the JSON, so no String is created
+ * to find out that a key is of no interest.
+ *
+ * The table size is grown until every key hashes to its own slot, so a
+ * lookup is a single probe followed by a byte comparison.
+ */
+final class JSONKeyTable {
+
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int MAX_SIZE = 1 << 16;
+
+    private final byte[][] slotKeys;
+    private final int[] slotIds;
+    private final int mask;
+
+    /**
+     * Constructor
+     *
+     * @param keys The keys to match, the index of each is its key id
+     */
+    JSONKeyTable(String[] keys) {
+        byte[][] encoded = new byte[keys.length][];
+
+        for (int i = 0; i < keys.length; i++) {
+            encoded[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        int size = Integer.highestOneBit(Math.max(keys.length, 1) * 2 - 1) << 1;
+
+        while (true) {
+            byte[][] table = new byte[size][];
+            int[] ids = new int[size];
+            boolean collision = false;
+
+            for (int i = 0; i < encoded.length && !collision; i++) {
+                int slot = hash(encoded[i], encoded[i].length) & (size - 1);
+
+                if (table[slot] != null) {
+                    collision = !Arrays.equals(table[slot], encoded[i]);
+                    continue;
+                }
+
+                table[slot] = encoded[i];
+                ids[slot] = i;
+            }
+
+            if (!collision) {
+                slotKeys = table;
+                slotIds = ids;
+                mask = size - 1;
+                return;
+            }
+
+            if (size == MAX_SIZE) {
+                throw new IllegalArgumentException(
+                    "Unable to build a perfect hash for the keys");
+            }
+
+            size <<= 1;
+        }
+    }
+
+    /**
+     * Start the hash of a new key
+     *
+     * @return The initial hash value
+     */
+    static int start() {
+        return FNV_OFFSET;
+    }
+
+    /**
+     * Add a byte to a hash in progress
+     *
+     * @param hash The hash so far
+     * @param b The next byte of the key
+     * @return The updated hash
+     */
+    static int update(int hash, byte b) {
+        return (hash ^ (b & 0xFF)) * FNV_PRIME;
+    }
+
+    /**
+     * Look up a key
+     *
+     * @param hash The hash of the key bytes
+     * @param key Buffer holding the key bytes
+     * @param length Number of bytes in the key
+     * @return The key id, or JSONParserJP.UNKNOWN_KEY if it is not in the table
+     */
+    int lookup(int hash, byte[] key, int length) {
+        int slot = hash & mask;
+        byte[] candidate = slotKeys[slot];
+
+        if (candidate == null || candidate.length != length) {
+            return JSONParserJP.UNKNOWN_KEY;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (candidate[i] != key[i]) {
+                return JSONParserJP.UNKNOWN_KEY;
+            }
+        }
+
+        return slotIds[slot];
+    }
+
+    private static int hash(byte[] key, int length) {
+        int hash = start();
+
+        for (int i = 0; i < length; i++) {
+            hash = update(hash, key[i]);
+        }
+
+        return hash;
+    }
+}
@@ -33,11 +33,22 @@ package devoxx;
 
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A SAX/Pull style parser for JSON. It provides event call backs as it reads
@@ -54,6 +65,11 @@ public class JSONParserJP {
         STRING, NUMBER, BOOLEAN, NULL
     };
 
+    /**
+     * Key id passed to a KeyedCallback for keys it did not register
+     */
+    public static final int UNKNOWN_KEY = -1;
+
     /**
      * Parses the given url and prints out the callback events to aid debugging.
      *
@@ -69,65 +85,325 @@ public class JSONParserJP {
     }
 
     /**
-     * Parses the given url and fires the data into the given callback.
+     * The outcome of a download
+     */
+    public static enum DownloadResult {
+
+        /* New data was downloaded, parsed and cached */
+        PARSED,
+        /* The server says the cached copy is still current */
+        NOT_MODIFIED,
+        /* The download failed, the cached copy (if any) is unchanged */
+        FAILED
+    };
+
+    /**
+     * Downloads the given url, parsing it into the given callback as it
+     * arrives. The raw bytes are spooled to a temporary file on the way, which
+     * only replaces fileName (atomically) once the whole response has been
+     * parsed, so the cached copy is always complete.
+     *
+     * The ETag and Last-Modified validators of the response are kept next to
+     * the cached file (in fileName.validators) and sent back on the next
+     * request, so when nothing has changed the server can answer 304 and
+     * nothing is downloaded or parsed.
+     *
+     * The server is asked to compress the response (gzip or deflate), which
+     * is decompressed as it arrives, so the parser and the cache see the
+     * plain JSON. If compressCache is set the cache file is gzipped, which
+     * parse() handles transparently.
      *
      * @param logger Where to log messages
      * @param url The url to load and parse
-     * @param fileName
-     * @return true in case we could download and parse the URL, false in case there is no Internet connection
-     * @throws IOException if thrown by the stream
+     * @param fileName Where to cache the downloaded data
+     * @param fetcher What to make the request with
+     * @param compressCache Whether to gzip the cache file
+     * @param callback The keyed callback to use
+     * @return PARSED if the url was downloaded and parsed, NOT_MODIFIED if the
+     * cached file is still current (the callback is not called), or FAILED in
+     * case there is no Internet connection or the data was bad, in which case
+     * the previously cached file is left untouched
      */
-    public static boolean download(Logger logger, String url, String fileName)
-        throws IOException {
-        InputStream in;
+    public static DownloadResult download(Logger logger, String url,
+        String fileName, HttpFetcher fetcher, boolean compressCache,
+        KeyedCallback callback) {
+        Path destFile = Paths.get(fileName);
+        Path tempFile = Paths.get(fileName + ".tmp");
+        Path validatorFile = Paths.get(fileName + ".validators");
+
+        long start = System.nanoTime();
 
         try {
-            final URL urlObj = new URL(url);
-            HttpURLConnection connection = (HttpURLConnection) urlObj.openConnection();
-            in = connection.getInputStream();
-            File tempFile = new File(fileName + ".tmp");
-            BufferedReader br = new BufferedReader(new InputStreamReader(in));
-            String line = br.readLine();
-
-            try (BufferedWriter os = new BufferedWriter(new FileWriter(tempFile))) {
-                while (line != null) {
-                    os.write(line);
-                    os.write('\n');
-                    line = br.readLine();
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Accept-Encoding", "gzip, deflate");
+            Properties validators = new Properties();
+
+            if (Files.exists(destFile) && Files.exists(validatorFile)) {
+                try (InputStream in = Files.newInputStream(validatorFile)) {
+                    validators.load(in);
+                }
+
+                if (url.equals(validators.getProperty("url"))) {
+                    String etag = validators.getProperty("etag");
+                    String lastModified
+                        = validators.getProperty("last-modified");
+
+                    if (etag != null) {
+                        headers.put("If-None-Match", etag);
+                    }
+
+                    if (lastModified != null) {
+                        headers.put("If-Modified-Since", lastModified);
+                    }
+                }
+            }
+
+            long received;
+            String etag;
+            String lastModified;
+
+            try (HttpFetcher.Response response = fetcher.get(url, headers)) {
+                if (response.getStatus()
+                    == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    logger.finer(url + " not modified");
+                    downloadTime(url).observeSince(start);
+                    Metrics.counter("signage_download_not_modified_total",
+                        "Downloads the server said had not changed", "url",
+                        url).inc();
+                    return DownloadResult.NOT_MODIFIED;
+                }
+
+                /* The body is closed with the response, so it can be
+                 * drained for the connection to be reused
+                 */
+                CountingInputStream raw
+                    = new CountingInputStream(response.getBody());
+                InputStream in = decode(raw,
+                    response.getHeader("Content-Encoding"));
+
+                try (OutputStream os = compressCache
+                    ? new GZIPOutputStream(Files.newOutputStream(tempFile),
+                        8192)
+                    : Files.newOutputStream(tempFile)) {
+                    JSONByteParser.parse(in, os, callback);
                 }
+
+                received = raw.count;
+                etag = response.getHeader("ETag");
+                lastModified = response.getHeader("Last-Modified");
             }
-            in.close();
-            File destFile = new File(fileName);
-            destFile.delete();
-            tempFile.renameTo(destFile);
-            return true;
+
+            downloadTime(url).observeSince(start);
+            Metrics.counter("signage_download_bytes_total",
+                "Bytes downloaded, compressed if the server compressed them",
+                "url", url).add(received);
+
+            try {
+                Files.move(tempFile, destFile,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile, destFile,
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            saveValidators(logger, validatorFile, url, etag, lastModified);
+            return DownloadResult.PARSED;
         } catch (IOException ex) {
-            System.out.println("INTERNET IS DOWN, USING CACHED DATA.  :)");
+            logger.warning("Unable to download " + url + " ("
+                + ex.getMessage() + "), using cached data");
+            Metrics.counter("signage_download_failures_total",
+                "Downloads that failed", "url", url).inc();
+
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ioe) {
+                logger.warning("Unable to remove " + tempFile);
+            }
+        }
+
+        return DownloadResult.FAILED;
+    }
+
+    /**
+     * Decompress a response body as it is read
+     *
+     * @param in The body as received
+     * @param encoding The Content-Encoding of the response, or null
+     * @return The decompressed body
+     * @throws IOException If the encoding is not one we asked for
+     */
+    static InputStream decode(InputStream in, String encoding)
+        throws IOException {
+        if (encoding == null || encoding.equalsIgnoreCase("identity")) {
+            return in;
+        } else if (encoding.equalsIgnoreCase("gzip")
+            || encoding.equalsIgnoreCase("x-gzip")) {
+            return new GZIPInputStream(in, 8192);
+        } else if (encoding.equalsIgnoreCase("deflate")) {
+            /* deflate should be zlib wrapped, but some servers send it raw,
+             * which can be told from the zlib header
+             */
+            PushbackInputStream pushback = new PushbackInputStream(in, 2);
+            int cmf = pushback.read();
+            int flg = pushback.read();
+
+            if (flg < 0) {
+                throw new EOFException("Truncated deflate stream");
+            }
+
+            pushback.unread(flg);
+            pushback.unread(cmf);
+            boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(pushback, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+
+        throw new IOException("Unsupported Content-Encoding " + encoding);
+    }
+
+    /**
+     * Counts the bytes read through it, i.e. those actually received
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0) {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+
+            if (n > 0) {
+                count += n;
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Get the histogram of how long downloads (and parsing them as they
+     * arrive) take from a URL
+     *
+     * @param url The URL
+     * @return The histogram
+     */
+    private static Metrics.Histogram downloadTime(String url) {
+        return Metrics.histogram("signage_download_seconds",
+            "Time to download and parse data", "url", url);
+    }
+
+    /**
+     * Remember the validators of a response, if the server sent any
+     *
+     * @param logger Where to log messages
+     * @param validatorFile Where to store the validators
+     * @param url The url the response came from
+     * @param etag The ETag of the response, or null
+     * @param lastModified The Last-Modified of the response, or null
+     */
+    private static void saveValidators(Logger logger, Path validatorFile,
+        String url, String etag, String lastModified) {
+        try {
+            if (etag == null && lastModified == null) {
+                Files.deleteIfExists(validatorFile);
+                return;
+            }
+
+            Properties validators = new Properties();
+            validators.setProperty("url", url);
+
+            if (etag != null) {
+                validators.setProperty("etag", etag);
+            }
+
+            if (lastModified != null) {
+                validators.setProperty("last-modified", lastModified);
+            }
+
+            try (OutputStream os = Files.newOutputStream(validatorFile)) {
+                validators.store(os, null);
+            }
+        } catch (IOException ioe) {
+            logger.warning("Unable to save validators for " + url);
         }
-        return false;
     }
 
     /**
      * Parses the given file and fires the data into the given callback.
      *
+     * The file is memory-mapped and tokenized directly as UTF-8 bytes, so
+     * only the contents of string tokens are ever decoded to chars. A
+     * gzipped file is decompressed as it is parsed instead.
+     *
      * @param logger Where to log messages to
      * @param fileName The file to parse
      * @param callback The callback class to use
-     * @throws IOException if thrown by the stream
+     * @throws IOException if the file cannot be read or is not valid JSON
      */
     public static void parse(Logger logger, String fileName, Callback callback)
         throws IOException {
-        InputStream in = null;
+        logger.finest("Parsing " + fileName);
+        long start = System.nanoTime();
+        JSONByteParser.parse(Paths.get(fileName), callback);
+        parseTime(fileName).observeSince(start);
+    }
 
-        try {
-            in = new FileInputStream(new File(fileName));
-            parse(new BufferedReader(new InputStreamReader(in, "UTF-8")), callback);
-        } catch (IOException ex) {
-            if (in != null) {
-                in.close();
-            }
-            throw ex;
-        }
+    /**
+     * Parses the given file and fires the data into the given keyed callback.
+     * Only the keys the callback registered are matched and only their values
+     * are decoded, so ignored parts of the data cost no allocations.
+     *
+     * @param logger Where to log messages to
+     * @param fileName The file to parse
+     * @param callback The keyed callback to use
+     * @throws IOException if the file cannot be read or is not valid JSON
+     */
+    public static void parse(Logger logger, String fileName,
+        KeyedCallback callback) throws IOException {
+        logger.finest("Parsing " + fileName);
+        long start = System.nanoTime();
+        JSONByteParser.parse(Paths.get(fileName), callback);
+        parseTime(fileName).observeSince(start);
+    }
+
+    /**
+     * Get the histogram of how long parsing a file takes
+     *
+     * @param fileName The file
+     * @return The histogram
+     */
+    private static Metrics.Histogram parseTime(String fileName) {
+        return Metrics.histogram("signage_parse_seconds",
+            "Time to parse a cached data file", "file", fileName);
     }
 
     private static final int NORMAL = 0;
@@ -137,6 +413,9 @@ public class JSONParserJP {
     private static final int NULL = 4;
     private static final int TRUE = 5;
     private static final int FALSE = 6;
+    private static final int SKIP = 7;
+    private static final int SKIP_QUOTE = 8;
+    private static final int SKIP_ESCAPE = 9;
 
     /**
      * Parses the given input reader and fires the data into the given callback.
@@ -152,6 +431,7 @@ public class JSONParserJP {
         String currentObjectName;
         int depth = 0;
         int keywordCharCount = -1;
+        int skipDepth = 0;
         char[] buffer = new char[1024 * 11];
         char[] charBuffer = new char[1024];
         int charBufferLength = 0;
@@ -204,10 +484,20 @@ public class JSONParserJP {
                                 continue;
                             case '{':
                                 currentObjectName = potentialObjectName;
+                                potentialObjectName = null;
+                                if (callback.startObject(currentObjectName, depth)) {
+                                    // callback isn't interested, skip to the matching '}'
+                                    state = SKIP;
+                                    skipDepth = 1;
+                                    charBufferLength = 0;
+                                    valueType = null;
+                                    continue;
+                                }
                                 blocks.add(currentObjectName);
-                                callback.startObject(currentObjectName, depth);
                                 depth++;
-                                potentialObjectName = null;
+                                // the name was a string; don't let an empty object report it
+                                charBufferLength = 0;
+                                valueType = null;
                                 continue;
                             case '}':
                                 // end any pending item
@@ -257,10 +547,20 @@ public class JSONParserJP {
                                 continue;
                             case '[':
                                 currentObjectName = potentialObjectName;
+                                potentialObjectName = null;
+                                if (callback.startArray(currentObjectName, depth)) {
+                                    // callback isn't interested, skip to the matching ']'
+                                    state = SKIP;
+                                    skipDepth = 1;
+                                    charBufferLength = 0;
+                                    valueType = null;
+                                    continue;
+                                }
                                 blocks.add(currentObjectName);
-                                callback.startArray(currentObjectName, depth);
                                 depth++;
-                                potentialObjectName = null;
+                                // the name was a string; don't let an empty array report it
+                                charBufferLength = 0;
+                                valueType = null;
                                 continue;
                             case ']':
                                 // end any pending item
@@ -355,6 +655,10 @@ public class JSONParserJP {
                             case '8':
                             case '9':
                             case '.':
+                            case '-':
+                            case '+':
+                            case 'e':
+                            case 'E':
                             case 'x':
                             case 'd':
                             case 'l':
@@ -368,6 +672,34 @@ public class JSONParserJP {
                                 continue;
                         }
                         break;
+                    case SKIP:
+                        // only brackets and quotes matter while skipping
+                        switch (c) {
+                            case '"':
+                                state = SKIP_QUOTE;
+                                continue;
+                            case '{':
+                            case '[':
+                                skipDepth++;
+                                continue;
+                            case '}':
+                            case ']':
+                                if (--skipDepth == 0) {
+                                    state = NORMAL;
+                                }
+                                continue;
+                        }
+                        continue;
+                    case SKIP_QUOTE:
+                        if (c == '\\') {
+                            state = SKIP_ESCAPE;
+                        } else if (c == '"') {
+                            state = SKIP;
+                        }
+                        continue;
+                    case SKIP_ESCAPE:
+                        state = SKIP_QUOTE;
+                        continue;
                     case QUOTE:
                         switch (c) {
                             case '"':
@@ -534,8 +866,10 @@ public class JSONParserJP {
          * is the key name, otherwise its null
          * @param depth The current depth, number of parent objects and arrays
          * that contain this object
+         * @return true to skip the whole object, in which case no further
+         * events (including endObject) are fired for it
          */
-        public void startObject(String objectName, int depth);
+        public boolean startObject(String objectName, int depth);
 
         /**
          * Indicates that the parser ran into end of object '}'
@@ -554,8 +888,10 @@ public class JSONParserJP {
          * the key name, otherwise its null
          * @param depth The current depth, number of parent objects and arrays
          * that contain this array
+         * @return true to skip the whole array, in which case no further
+         * events (including endArray) are fired for it
          */
-        public void startArray(String arrayName, int depth);
+        public boolean startArray(String arrayName, int depth);
 
         /**
          * Indicates that the parser ran into start of array ']'
@@ -600,6 +936,76 @@ public class JSONParserJP {
         public boolean isCanceled();
     }
 
+    /**
+     * A callback that declares up front the keys it cares about. Keys are
+     * passed as their index in the keys() array (or UNKNOWN_KEY) and values
+     * as a CharSequence that is only valid during the call, so a callback
+     * only pays for a String when it keeps a value.
+     */
+    public static interface KeyedCallback {
+
+        /**
+         * The keys this callback wants values for
+         *
+         * @return The keys, the index of each is the id it is reported with
+         */
+        public String[] keys();
+
+        /**
+         * Indicates that the parser ran into start of object '{'
+         *
+         * @param key if this object is value of key/value pair then this is
+         * the key id, otherwise UNKNOWN_KEY
+         * @param depth The current depth, number of parent objects and arrays
+         * that contain this object
+         * @return true to skip the whole object, in which case no further
+         * events (including endObject) are fired for it
+         */
+        public boolean startObject(int key, int depth);
+
+        /**
+         * Indicates that the parser ran into end of object '}'
+         *
+         * @param key if this object is value of key/value pair then this is
+         * the key id, otherwise UNKNOWN_KEY
+         * @param depth The current depth, number of parent objects and arrays
+         * that contain this object
+         */
+        public void endObject(int key, int depth);
+
+        /**
+         * Indicates that the parser ran into start of array '['
+         *
+         * @param key if this array is value of key/value pair then this is
+         * the key id, otherwise UNKNOWN_KEY
+         * @param depth The current depth, number of parent objects and arrays
+         * that contain this array
+         * @return true to skip the whole array, in which case no further
+         * events (including endArray) are fired for it
+         */
+        public boolean startArray(int key, int depth);
+
+        /**
+         * Indicates that the parser ran into end of array ']'
+         *
+         * @param key if this array is value of key/value pair then this is
+         * the key id, otherwise UNKNOWN_KEY
+         * @param depth The current depth, number of parent objects and arrays
+         * that contain this array
+         */
+        public void endArray(int key, int depth);
+
+        /**
+         * Called when a registered key with a primitive value is detected
+         *
+         * @param key the key id
+         * @param value the value, only valid for the duration of the call
+         * (null for a JSON null)
+         * @param depth The current depth
+         */
+        public void keyValue(int key, CharSequence value, int depth);
+    }
+
     public static class PrintCallback implements Callback {
 
         private String indent = "";
@@ -610,9 +1016,10 @@ public class JSONParserJP {
         }
 
         @Override
-        public void startObject(String blockName, int depth) {
+        public boolean startObject(String blockName, int depth) {
             out.println(indent + "startObject(" + blockName + "," + depth + ")");
             indent += "    ";
+            return false;
         }
 
         @Override
@@ -622,9 +1029,10 @@ public class JSONParserJP {
         }
 
         @Override
-        public void startArray(String arrayName, int depth) {
+        public boolean startArray(String arrayName, int depth) {
             out.println(indent + "startArray(" + arrayName + "," + depth + ")");
             indent += "    ";
+            return false;
         }
 
         @Override
@@ -666,7 +1074,8 @@ public class JSONParserJP {
     public static abstract class CallbackAdapter implements Callback {
 
         @Override
-        public void startObject(String objectName, int depth) {
+        public boolean startObject(String objectName, int depth) {
+            return false;
         }
 
         @Override
@@ -674,7 +1083,8 @@ public class JSONParserJP {
         }
 
         @Override
-        public void startArray(String arrayName, int depth) {
+        public boolean startArray(String arrayName, int depth) {
+            return false;
         }
 
         @Override
@@ -702,4 +1112,33 @@ public class JSONParserJP {
             return false;
         }
     }
+
+    /**
+     * An adapter to make it cleaner in keyed implementations that don't need
+     * to implement everything.
+     */
+    public static abstract class KeyedCallbackAdapter implements KeyedCallback {
+
+        @Override
+        public boolean startObject(int key, int depth) {
+            return false;
+        }
+
+        @Override
+        public void endObject(int key, int depth) {
+        }
+
+        @Override
+        public boolean startArray(int key, int depth) {
+            return false;
+        }
+
+        @Override
+        public void endArray(int key, int depth) {
+        }
+
+        @Override
+        public void keyValue(int key, CharSequence value, int depth) {
+        }
+    }
 }
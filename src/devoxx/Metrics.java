@@ -0,0 +1,298 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A small registry of counters, gauges and latency histograms, written out in
+ * the Prometheus text format by MetricsServer.
+ *
+ * Recording is cheap enough for the hot paths: counters and histogram
+ * buckets are LongAdders, so there is no locking and little contention, and
+ * callers look their metrics up once and keep hold of them. Histograms use
+ * fixed power of two buckets (1 microsecond up to about a minute), which is
+ * accurate to within a factor of two at every scale without having to know
+ * the range of values in advance.
+ *
+ * Each metric can have one label (the URL of a download, say) to tell
+ * related values apart.
+ */
+public final class Metrics {
+
+  private static final Map<String, Family> families
+      = new ConcurrentSkipListMap<>();
+
+  private Metrics() {
+  }
+
+  /**
+   * Get a counter, creating it the first time
+   *
+   * @param name The name of the counter
+   * @param help What the counter counts
+   * @return The counter
+   */
+  public static Counter counter(String name, String help) {
+    return counter(name, help, null, null);
+  }
+
+  /**
+   * Get a labelled counter, creating it the first time
+   *
+   * @param name The name of the counter
+   * @param help What the counter counts
+   * @param label The name of the label
+   * @param value The value of the label
+   * @return The counter
+   */
+  public static Counter counter(String name, String help, String label,
+      String value) {
+    return (Counter) family(name, help, "counter", label)
+        .metrics.computeIfAbsent(key(value), k -> new Counter());
+  }
+
+  /**
+   * Get a histogram of durations, creating it the first time
+   *
+   * @param name The name of the histogram
+   * @param help What the histogram measures
+   * @return The histogram
+   */
+  public static Histogram histogram(String name, String help) {
+    return histogram(name, help, null, null);
+  }
+
+  /**
+   * Get a labelled histogram of durations, creating it the first time
+   *
+   * @param name The name of the histogram
+   * @param help What the histogram measures
+   * @param label The name of the label
+   * @param value The value of the label
+   * @return The histogram
+   */
+  public static Histogram histogram(String name, String help, String label,
+      String value) {
+    return (Histogram) family(name, help, "histogram", label)
+        .metrics.computeIfAbsent(key(value), k -> new Histogram());
+  }
+
+  /**
+   * Register a gauge, replacing any gauge already registered with the same
+   * name. The value is only read when the metrics are written
+   *
+   * @param name The name of the gauge
+   * @param help What the gauge measures
+   * @param value Where to get the value from
+   */
+  public static void gauge(String name, String help, DoubleSupplier value) {
+    family(name, help, "gauge", null).metrics.put(key(null), new Gauge(value));
+  }
+
+  /**
+   * Write out all the metrics in the Prometheus text format
+   *
+   * @return The metrics
+   */
+  public static String scrape() {
+    StringBuilder out = new StringBuilder(8192);
+
+    for (Map.Entry<String, Family> entry : families.entrySet()) {
+      String name = entry.getKey();
+      Family family = entry.getValue();
+      out.append("# HELP ").append(name).append(' ')
+          .append(family.help).append('\n');
+      out.append("# TYPE ").append(name).append(' ')
+          .append(family.type).append('\n');
+
+      for (Map.Entry<String, Metric> metric : family.metrics.entrySet()) {
+        String labels = family.label == null ? ""
+            : family.label + "=\"" + escape(metric.getKey()) + "\"";
+        metric.getValue().write(out, name, labels);
+      }
+    }
+
+    return out.toString();
+  }
+
+  private static Family family(String name, String help, String type,
+      String label) {
+    Family family = families.computeIfAbsent(name,
+        n -> new Family(help, type, label));
+
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is already a "
+          + family.type);
+    }
+
+    return family;
+  }
+
+  private static String key(String value) {
+    return value == null ? "" : value;
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"")
+        .replace("\n", "\\n");
+  }
+
+  private static void sample(StringBuilder out, String name, String labels,
+      String value) {
+    out.append(name);
+
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+
+    out.append(' ').append(value).append('\n');
+  }
+
+  private static String seconds(double nanos) {
+    return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+  }
+
+  /**
+   * All the metrics with the same name, one for each label value
+   */
+  private static class Family {
+
+    final String help;
+    final String type;
+    final String label;
+    final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    Family(String help, String type, String label) {
+      this.help = help;
+      this.type = type;
+      this.label = label;
+    }
+  }
+
+  /**
+   * Something that can write its current value(s)
+   */
+  private interface Metric {
+
+    void write(StringBuilder out, String name, String labels);
+  }
+
+  /**
+   * A count that only goes up
+   */
+  public static final class Counter implements Metric {
+
+    private final LongAdder count = new LongAdder();
+
+    private Counter() {
+    }
+
+    /**
+     * Add one to the count
+     */
+    public void inc() {
+      count.increment();
+    }
+
+    /**
+     * Add to the count
+     *
+     * @param amount How much to add
+     */
+    public void add(long amount) {
+      count.add(amount);
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+      sample(out, name, labels, Long.toString(count.sum()));
+    }
+  }
+
+  /**
+   * A value read when the metrics are written
+   */
+  private static final class Gauge implements Metric {
+
+    private final DoubleSupplier value;
+
+    Gauge(DoubleSupplier value) {
+      this.value = value;
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+      sample(out, name, labels, Double.toString(value.getAsDouble()));
+    }
+  }
+
+  /**
+   * A distribution of durations. Recorded in nanoseconds and written in
+   * seconds, as Prometheus expects
+   */
+  public static final class Histogram implements Metric {
+
+    /* Bucket i holds values up to 2^(MIN_SHIFT + i) nanoseconds */
+    private static final int MIN_SHIFT = 10;
+    private static final int BUCKETS = 27;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+    private final LongAdder sum = new LongAdder();
+
+    private Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void observe(long nanos) {
+      if (nanos < 1) {
+        nanos = 1;
+      }
+
+      int bucket = 64 - Long.numberOfLeadingZeros(nanos - 1) - MIN_SHIFT;
+      buckets[Math.max(0, Math.min(bucket, BUCKETS))].increment();
+      sum.add(nanos);
+    }
+
+    /**
+     * Record the time since a call to System.nanoTime()
+     *
+     * @param startNanos What System.nanoTime() returned at the start
+     */
+    public void observeSince(long startNanos) {
+      observe(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+      String prefix = labels.isEmpty() ? "" : labels + ",";
+      long count = 0;
+
+      for (int i = 0; i < BUCKETS; i++) {
+        count += buckets[i].sum();
+        sample(out, name + "_bucket",
+            prefix + "le=\"" + seconds(1L << (MIN_SHIFT + i)) + "\"",
+            Long.toString(count));
+      }
+
+      count += buckets[BUCKETS].sum();
+      sample(out, name + "_bucket", prefix + "le=\"+Inf\"",
+          Long.toString(count));
+      sample(out, name + "_sum", labels, seconds(sum.sum()));
+      sample(out, name + "_count", labels, Long.toString(count));
+    }
+  }
+}
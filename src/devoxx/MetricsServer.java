@@ -0,0 +1,126 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.application.Platform;
+
+/**
+ * Serves the metrics at /metrics in the Prometheus text format, so the
+ * screens can be watched (and the slow ones found) without logging in to
+ * each of them. Also keeps an eye on the JavaFX application thread: anything
+ * that holds it up also holds up the pulses that redraw the screen, so how
+ * long a task posted to it waits to run is a good measure of stalls. All of
+ * this runs on a single daemon thread.
+ */
+public class MetricsServer {
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+  private static final long PROBE_INTERVAL = 1000;
+  private static final long STALL_TIME = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final Metrics.Histogram fxLag = Metrics.histogram(
+      "signage_fx_lag_seconds",
+      "Time a task waits to run on the JavaFX application thread");
+  private static final Metrics.Counter fxStalls = Metrics.counter(
+      "signage_fx_stalls_total",
+      "JavaFX application thread held up for more than 100ms");
+
+  private final Logger logger;
+  private final HttpServer server;
+  private final ScheduledExecutorService executor
+      = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-server");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Constructor
+   *
+   * @param logger Where to log messages to
+   * @param port The port to listen on
+   * @throws IOException If the port cannot be listened on
+   */
+  public MetricsServer(Logger logger, int port) throws IOException {
+    this.logger = logger;
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext("/metrics", this::handle);
+    server.setExecutor(executor);
+  }
+
+  /**
+   * Start serving the metrics
+   */
+  public void start() {
+    /* The server's dispatcher thread takes after the thread that starts it,
+     * so start it from ours to keep it from holding up an exit
+     */
+    executor.execute(server::start);
+    logger.info("Serving metrics on port " + server.getAddress().getPort());
+  }
+
+  /**
+   * Start watching the JavaFX application thread for stalls
+   */
+  public void watchFxThread() {
+    executor.scheduleWithFixedDelay(this::probe, PROBE_INTERVAL,
+        PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Post a task to the JavaFX application thread that records how long it
+   * waited to run
+   */
+  private void probe() {
+    long posted = System.nanoTime();
+
+    Platform.runLater(() -> {
+      long lag = System.nanoTime() - posted;
+      fxLag.observe(lag);
+
+      if (lag > STALL_TIME) {
+        fxStalls.inc();
+      }
+    });
+  }
+
+  /**
+   * Send the metrics in reply to a request
+   *
+   * @param exchange The request and response
+   * @throws IOException If the reply cannot be sent
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Unable to serve metrics", e);
+      throw e;
+    } finally {
+      exchange.close();
+    }
+  }
+}
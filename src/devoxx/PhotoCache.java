@@ -0,0 +1,1067 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.scene.image.Image;
+import javax.imageio.ImageIO;
+
+/**
+ * The speaker photos, both on disk and in memory. Photos are decoded at
+ * display size once, then kept in memory so a speaker with several talks (or
+ * a screen being redrawn) costs nothing. The memory used is bounded, the
+ * least recently used photos going first.
+ *
+ * On disk each photo is a small thumbnail rather than whatever the speaker
+ * uploaded: a square PNG, cropped from the middle of the original and scaled
+ * to the thumbnail size. The file is named after the SHA-256 of the original
+ * (so speakers with the same photo share a file) and the PNG follows a
+ * header of
+ *
+ *   int    magic ("DVXP")
+ *   short  format version
+ *   UTF    source URL
+ *   short  thumbnail size (width and height)
+ *   short  hash length, then the SHA-256 of the original image
+ *
+ * An index maps each speaker to their photo, along with where it came from,
+ * when it was fetched and the HTTP validators, so a photo is downloaded
+ * again when the avatar URL changes and is otherwise only revalidated with
+ * a conditional request. A thumbnail made at a different size (photo-size
+ * has changed) is made again from a fresh download. Files are always
+ * written under a temporary name and moved into place, so a failed download
+ * never leaves a corrupt photo.
+ */
+public class PhotoCache {
+
+  /* Size (in pixels) of the square photo on the screen */
+  public static final int PHOTO_SIZE = 150;
+
+  private static final int MAGIC = 0x44565850;
+  private static final int VERSION = 1;
+  private static final String INDEX_FILE = "photos.index";
+  private static final long INDEX_SAVE_INTERVAL = 5000;
+
+  private static final Metrics.Counter hits = Metrics.counter(
+      "signage_photo_cache_hits_total", "Photos found decoded in memory");
+  private static final Metrics.Counter misses = Metrics.counter(
+      "signage_photo_cache_misses_total", "Photos that had to be decoded");
+  private static final Metrics.Histogram decodeTime = Metrics.histogram(
+      "signage_photo_decode_seconds", "Time to read and decode a photo");
+  private static final Metrics.Histogram fetchTime = Metrics.histogram(
+      "signage_photo_fetch_seconds", "Time to download and store a photo");
+  private static final Metrics.Counter fetchBytes = Metrics.counter(
+      "signage_photo_bytes_total", "Bytes of photos downloaded");
+  private static final Metrics.Counter notModified = Metrics.counter(
+      "signage_photo_not_modified_total",
+      "Photos the server said had not changed");
+
+  private final Logger logger;
+  private final String directory;
+  private final long maxBytes;
+  private final int thumbnailSize;
+  private final long revalidateMillis;
+  private final HttpFetcher fetcher;
+  private final String photoHost;
+  private final Map<String, Image> images
+      = new LinkedHashMap<>(64, 0.75f, true);
+  private long usedBytes;
+
+  /* Counts photo files rewritten, so a decode of the old file isn't kept */
+  private long replaced;
+
+  /* Speaker uuid to photo.  Lock this when using the index, but don't do
+   * any file I/O while holding it
+   */
+  private final Map<String, Entry> index = new HashMap<>();
+  private boolean indexDirty;
+  private long indexSaved;
+
+  /* Held while saving the index, so an older copy never replaces a newer */
+  private final Object indexSaveLock = new Object();
+
+  /* Held while deciding a photo file is unused and deleting it, and while
+   * checking a photo file is there and adding it to the index, so a photo
+   * is never deleted just as another speaker starts using it.  Lookups
+   * only need the index lock, so never wait for this
+   */
+  private final Object filesLock = new Object();
+
+  /**
+   * Constructor
+   *
+   * @param logger Where to log messages to
+   * @param directory Directory the photos are cached in
+   * @param maxBytes Maximum memory to use for decoded photos
+   * @param thumbnailSize Width and height of the photos stored on disk
+   * @param revalidateTime How long (in hours) before checking a photo for
+   * changes
+   * @param fetcher What to download the photos with
+   * @param photoHost Where to download the photos from instead of their
+   * own URLs (a hub), or null
+   */
+  public PhotoCache(Logger logger, String directory, long maxBytes,
+      int thumbnailSize, int revalidateTime, HttpFetcher fetcher,
+      String photoHost) {
+    this.logger = logger;
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.thumbnailSize = thumbnailSize;
+    this.revalidateMillis = revalidateTime * 3600000L;
+    this.fetcher = fetcher;
+    this.photoHost = photoHost;
+    loadIndex();
+
+    /* The index is saved lazily, so make sure the last changes make it */
+    Runtime.getRuntime().addShutdownHook(
+        new Thread(() -> saveIndex(true), "photo-index"));
+
+    Metrics.gauge("signage_photo_memory_bytes",
+        "Memory used by decoded photos", this::getUsedBytes);
+  }
+
+  /**
+   * Check whether a speaker's photo is in the cache and up to date
+   *
+   * @param uuid The speaker's unique ID
+   * @param sourceURL Where the speaker's photo comes from now
+   * @return True if the photo is cached, came from the same URL and has
+   * been checked recently
+   */
+  public boolean isCached(String uuid, String sourceURL) {
+    Entry entry;
+
+    synchronized (index) {
+      entry = index.get(uuid);
+    }
+
+    return entry != null && entry.url.equals(sourceURL)
+        && System.currentTimeMillis() - entry.fetched < revalidateMillis
+        && Files.exists(getFile(entry.hash), LinkOption.NOFOLLOW_LINKS);
+  }
+
+  /**
+   * Download a speaker's photo into the cache. If we already have a photo
+   * from the same URL this is a conditional request, so nothing is
+   * downloaded unless it has changed. This blocks, so should not be called
+   * on the JavaFX application thread
+   *
+   * @param uuid The speaker's unique ID
+   * @param sourceURL Where to download the photo from
+   * @throws IOException If the photo cannot be downloaded or stored
+   */
+  public void fetch(String uuid, String sourceURL) throws IOException {
+    long start = System.nanoTime();
+    Entry entry;
+
+    synchronized (index) {
+      entry = index.get(uuid);
+    }
+
+    boolean revalidate = entry != null && entry.url.equals(sourceURL)
+        && hasThumbnail(entry.hash);
+    Map<String, String> headers = new HashMap<>();
+    headers.put("User-Agent", "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 (KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11");
+
+    if (revalidate) {
+      if (entry.etag != null) {
+        headers.put("If-None-Match", entry.etag);
+      }
+
+      if (entry.lastModified != null) {
+        headers.put("If-Modified-Since", entry.lastModified);
+      }
+    }
+
+    ByteArrayOutputStream original = new ByteArrayOutputStream(65536);
+    String etag;
+    String lastModified;
+
+    try (HttpFetcher.Response response
+        = fetcher.get(getDownloadURL(uuid, sourceURL), headers, true)) {
+      if (revalidate
+          && response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        logger.fine("Photo for " + uuid + " not modified");
+        commit(uuid, new Entry(sourceURL, entry.hash,
+            System.currentTimeMillis(), entry.etag, entry.lastModified), null);
+        notModified.inc();
+        fetchTime.observeSince(start);
+        return;
+      }
+
+      InputStream in = response.getBody();
+      byte[] buf = new byte[10240];
+      int byteCount;
+
+      while ((byteCount = in.read(buf)) > 0) {
+        original.write(buf, 0, byteCount);
+      }
+
+      etag = response.getHeader("ETag");
+      lastModified = response.getHeader("Last-Modified");
+    }
+
+    byte[] bytes = original.toByteArray();
+    byte[] hash = sha256(bytes);
+    String hashName = toHex(hash);
+
+    /* Only make a thumbnail if nobody else has the same photo */
+    byte[] thumbnail = null;
+
+    if (!hasThumbnail(hashName)) {
+      thumbnail = encode(sourceURL, bytes, hash);
+    } else {
+      logger.finer("Photo for " + uuid + " already cached as " + hashName);
+    }
+
+    commit(uuid, new Entry(sourceURL, hashName, System.currentTimeMillis(),
+        etag, lastModified), thumbnail);
+    fetchBytes.add(bytes.length);
+    fetchTime.observeSince(start);
+  }
+
+  /**
+   * Get where to download a speaker's photo from. That is the photo's own
+   * URL, unless we have a hub, in which case it is the thumbnail the hub
+   * has of it. The hub's URL includes a version of the photo's own URL, so
+   * a new photo is never mistaken for the old one
+   *
+   * @param uuid The speaker's unique ID
+   * @param sourceURL Where the speaker's photo comes from
+   * @return The URL to download the photo from
+   */
+  public String getDownloadURL(String uuid, String sourceURL) {
+    if (photoHost == null) {
+      return sourceURL;
+    }
+
+    return photoHost + uuid + "?v=" + version(sourceURL);
+  }
+
+  /**
+   * Get the version of a photo's URL, as used by getDownloadURL()
+   *
+   * @param sourceURL Where the photo comes from
+   * @return The version
+   */
+  public static String version(String sourceURL) {
+    return Integer.toHexString(sourceURL.hashCode());
+  }
+
+  /**
+   * Get the thumbnail of a speaker's photo, as stored, for serving to the
+   * screens when we are a hub
+   *
+   * @param uuid The speaker's unique ID
+   * @return The thumbnail or null if there isn't one
+   * @throws IOException If the cache file cannot be read
+   */
+  public Thumbnail getThumbnail(String uuid) throws IOException {
+    Entry entry;
+
+    synchronized (index) {
+      entry = index.get(uuid);
+    }
+
+    if (entry == null) {
+      return null;
+    }
+
+    Path file = getFile(entry.hash);
+
+    if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a cached photo");
+      }
+
+      readHeader(in);
+      ByteArrayOutputStream png = new ByteArrayOutputStream(16384);
+      byte[] buf = new byte[8192];
+      int byteCount;
+
+      while ((byteCount = in.read(buf)) > 0) {
+        png.write(buf, 0, byteCount);
+      }
+
+      return new Thumbnail(entry.url, entry.hash, png.toByteArray());
+    }
+  }
+
+  /**
+   * Get the decoded photo for a speaker, loading it from disk if it is not
+   * already in memory
+   *
+   * @param uuid The speaker's unique ID
+   * @return The square, display sized photo or null if it is not cached (or
+   * cannot be decoded)
+   */
+  public Image get(String uuid) {
+    Entry entry;
+
+    synchronized (index) {
+      entry = index.get(uuid);
+    }
+
+    if (entry == null) {
+      return null;
+    }
+
+    Image image;
+    long generation;
+
+    synchronized (this) {
+      image = images.get(entry.hash);
+      generation = replaced;
+    }
+
+    if (image != null) {
+      hits.inc();
+      return image;
+    }
+
+    /* Read and decode without the lock, so photos are decoded in parallel.
+     * Two threads may decode the same photo, in which case the first to
+     * finish is kept
+     */
+    misses.inc();
+    long start = System.nanoTime();
+    image = load(getFile(entry.hash));
+    decodeTime.observeSince(start);
+
+    if (image == null) {
+      return null;
+    }
+
+    synchronized (this) {
+      /* If a photo was rewritten meanwhile this may be the old one, so use
+       * it but don't keep it
+       */
+      if (generation != replaced) {
+        return image;
+      }
+
+      Image existing = images.putIfAbsent(entry.hash, image);
+
+      if (existing != null) {
+        return existing;
+      }
+
+      usedBytes += bytes(image);
+      evict();
+    }
+
+    return image;
+  }
+
+  /**
+   * Tidy up the cache directory. Photos cached before the index existed
+   * (named after the speaker, either as downloaded or as a thumbnail) are
+   * adopted, thumbnails of the wrong size are removed (so they are fetched
+   * again) and photos no speaker uses any more are deleted. This runs on its
+   * own (daemon) thread, so returns immediately
+   */
+  public void migrate() {
+    Thread thread = new Thread(() -> {
+      /* Nothing has been cached yet */
+      if (!Files.isDirectory(Paths.get(directory))) {
+        return;
+      }
+
+      int adopted = 0;
+      int resized = 0;
+
+      try (DirectoryStream<Path> files
+          = Files.newDirectoryStream(Paths.get(directory), "*.dat")) {
+        for (Path file : files) {
+          String name = file.getFileName().toString();
+          name = name.substring(0, name.length() - ".dat".length());
+
+          if (!isHashName(name)) {
+            if (adopt(name, file)) {
+              adopted++;
+            }
+          } else if (!hasThumbnail(name)) {
+            Files.deleteIfExists(file);
+            resized++;
+          }
+        }
+      } catch (IOException ioe) {
+        logger.log(Level.WARNING, "Unable to migrate photo cache", ioe);
+      }
+
+      if (adopted > 0) {
+        logger.info("Adopted " + adopted + " previously cached photos");
+      }
+
+      if (resized > 0) {
+        logger.info("Removed " + resized + " photos cached at another size, "
+            + "they will be fetched again");
+      }
+
+      removeUnused();
+    }, "photo-migration");
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Adopt a photo cached under the speaker's uuid
+   *
+   * @param uuid The speaker's unique ID
+   * @param file The cache file
+   * @return True if the photo was adopted
+   */
+  private boolean adopt(String uuid, Path file) {
+    try {
+      Entry entry;
+      byte[] thumbnail = null;
+      long fetched = Files.getLastModifiedTime(file).toMillis();
+
+      try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(file)))) {
+        entry = Files.size(file) >= 4 && in.readInt() == MAGIC
+            ? readHeader(in).toEntry(fetched) : null;
+      }
+
+      if (entry == null) {
+        /* Where an old style photo came from was never recorded, so it
+         * can't be revalidated: it is shown until the speaker's photo is
+         * next fetched, which downloads it again in full (keeping this
+         * thumbnail if it is the same photo)
+         */
+        byte[] original = Files.readAllBytes(file);
+        byte[] hash = sha256(original);
+        thumbnail = encode("", original, hash);
+        entry = new Entry("", toHex(hash), fetched, null, null);
+      }
+
+      Path hashFile = getFile(entry.hash);
+
+      if (thumbnail == null
+          && !Files.exists(hashFile, LinkOption.NOFOLLOW_LINKS)) {
+        move(file, hashFile);
+      }
+
+      /* The speaker may have been fetched again since we started */
+      boolean known;
+
+      synchronized (index) {
+        known = index.containsKey(uuid);
+      }
+
+      if (!known) {
+        commit(uuid, entry, thumbnail);
+      }
+
+      Files.deleteIfExists(file);
+      return true;
+    } catch (IOException ioe) {
+      /* Remove it, so it is downloaded again */
+      logger.log(Level.WARNING, "Unable to adopt cached photo " + file, ioe);
+
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException ioe2) {
+        logger.warning("Unable to remove cached photo " + file);
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * Delete the photos that are no longer in the index, along with any
+   * temporary files left over from an interrupted write. Only files older
+   * than the fetch timeout are touched, so a download being stored as we
+   * look (whose temporary file, or photo not yet in the index, is new) is
+   * left alone. Should one be removed anyway, its speaker's photo is simply
+   * fetched again
+   */
+  private void removeUnused() {
+    Set<String> used = new HashSet<>();
+
+    synchronized (index) {
+      for (Entry entry : index.values()) {
+        used.add(entry.hash);
+      }
+    }
+
+    long before = System.currentTimeMillis() - fetcher.getReadTimeout();
+
+    try (DirectoryStream<Path> files
+        = Files.newDirectoryStream(Paths.get(directory))) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+
+        try {
+          if (Files.getLastModifiedTime(file).toMillis() > before) {
+            continue;
+          }
+        } catch (NoSuchFileException nsfe) {
+          /* Moved into place or tidied up by someone else */
+          continue;
+        }
+
+        if (name.endsWith(".tmp")) {
+          Files.deleteIfExists(file);
+        } else if (name.endsWith(".dat")) {
+          name = name.substring(0, name.length() - ".dat".length());
+
+          if (isHashName(name) && !used.contains(name)) {
+            /* Check again, in case a speaker has just started using it */
+            synchronized (filesLock) {
+              boolean unused;
+
+              synchronized (index) {
+                unused = !isUsed(name);
+              }
+
+              if (unused) {
+                logger.fine("Removing unused photo " + name);
+                Files.deleteIfExists(file);
+              }
+            }
+          }
+        }
+      }
+    } catch (IOException ioe) {
+      logger.log(Level.WARNING, "Unable to tidy photo cache", ioe);
+    }
+
+    saveIndex(true);
+  }
+
+  /**
+   * Record a speaker's photo in the index, writing the photo first if it is
+   * new. When a speaker's photo changes the old one is deleted, unless
+   * another speaker uses it
+   *
+   * @param uuid The speaker's unique ID
+   * @param entry The index entry for the photo
+   * @param contents The complete file contents, null if the file exists
+   * @throws IOException If the photo cannot be written
+   */
+  private void commit(String uuid, Entry entry, byte[] contents)
+      throws IOException {
+    Path file = getFile(entry.hash);
+
+    if (contents != null) {
+      writeAtomically(file, out -> out.write(contents));
+
+      /* It may have been decoded at another size */
+      synchronized (this) {
+        replaced++;
+        Image stale = images.remove(entry.hash);
+
+        if (stale != null) {
+          usedBytes -= bytes(stale);
+        }
+      }
+    }
+
+    synchronized (filesLock) {
+      /* Another speaker's old photo may have been deleted since we looked */
+      if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+        if (contents == null) {
+          throw new IOException("Cached photo " + entry.hash
+              + " was removed");
+        }
+
+        writeAtomically(file, out -> out.write(contents));
+      }
+
+      String unused = null;
+
+      synchronized (index) {
+        Entry previous = index.put(uuid, entry);
+        indexDirty = true;
+
+        if (previous != null && !previous.hash.equals(entry.hash)
+            && !isUsed(previous.hash)) {
+          unused = previous.hash;
+        }
+      }
+
+      if (unused != null) {
+        Files.deleteIfExists(getFile(unused));
+      }
+    }
+
+    saveIndex(false);
+  }
+
+  /**
+   * Check whether any speaker's photo is a file. Call with the index locked
+   *
+   * @param hash The name of the photo file
+   * @return True if it is in the index
+   */
+  private boolean isUsed(String hash) {
+    return index.values().stream().anyMatch(entry -> entry.hash.equals(hash));
+  }
+
+  /**
+   * Load the index from the cache directory. A missing or unreadable index
+   * just means the photos are downloaded again
+   */
+  private void loadIndex() {
+    Path file = Paths.get(directory, INDEX_FILE);
+
+    if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+
+    Properties properties = new Properties();
+
+    try (InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    } catch (IOException ioe) {
+      logger.log(Level.WARNING, "Unable to read photo index", ioe);
+      return;
+    }
+
+    synchronized (index) {
+      for (String uuid : properties.stringPropertyNames()) {
+        Entry entry = Entry.parse(properties.getProperty(uuid));
+
+        if (entry != null) {
+          index.put(uuid, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Save the index if it has changed. Unless forced, this is done at most
+   * every few seconds, since a burst of photos arrives at startup. Losing
+   * the last few changes only means those photos are revalidated
+   *
+   * @param force Save now, however recently the index was last saved
+   */
+  private void saveIndex(boolean force) {
+    synchronized (indexSaveLock) {
+      Properties properties = new Properties();
+      long now = System.currentTimeMillis();
+
+      synchronized (index) {
+        if (!indexDirty
+            || (!force && now - indexSaved < INDEX_SAVE_INTERVAL)) {
+          return;
+        }
+
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+          properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+
+        indexDirty = false;
+        indexSaved = now;
+      }
+
+      try {
+        writeAtomically(Paths.get(directory, INDEX_FILE),
+            out -> properties.store(out, "Devoxx speaker photos"));
+      } catch (IOException ioe) {
+        logger.log(Level.WARNING, "Unable to save photo index", ioe);
+
+        synchronized (index) {
+          indexDirty = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Write a file under a temporary name and then move it into place. Each
+   * write has its own temporary file, so two threads storing the same photo
+   * don't get in each other's way
+   *
+   * @param file The file to write
+   * @param writer What to write to it
+   * @throws IOException If the file cannot be written
+   */
+  private void writeAtomically(Path file, Writer writer) throws IOException {
+    Path cache = Paths.get(directory);
+
+    if (!Files.exists(cache, LinkOption.NOFOLLOW_LINKS)) {
+      Files.createDirectories(cache);
+    }
+
+    Path tmpFile = Files.createTempFile(cache,
+        file.getFileName().toString(), ".tmp");
+
+    try {
+      try (OutputStream out = Files.newOutputStream(tmpFile)) {
+        writer.write(out);
+      }
+
+      move(tmpFile, file);
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  /**
+   * Move a file into place, atomically if the file system can
+   *
+   * @param from The file to move
+   * @param to Where to move it to, replacing any file already there
+   * @throws IOException If the file cannot be moved
+   */
+  private static void move(Path from, Path to) throws IOException {
+    try {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException amnse) {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Check a photo's thumbnail is stored at the size we want. One made when
+   * photo-size was different (or that can't be read) has to be made again
+   *
+   * @param hash The hash of the original photo, as hex
+   * @return True if the thumbnail is there and the right size
+   */
+  private boolean hasThumbnail(String hash) {
+    Path file = getFile(hash);
+
+    if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+      return false;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      return in.readInt() == MAGIC && readHeader(in).size == thumbnailSize;
+    } catch (IOException ioe) {
+      return false;
+    }
+  }
+
+  /**
+   * Get the cache file for a photo
+   *
+   * @param hash The hash of the original photo, as hex
+   * @return The path of the cache file
+   */
+  private Path getFile(String hash) {
+    return Paths.get(directory + File.separatorChar + hash + ".dat");
+  }
+
+  /**
+   * Get how much memory the decoded photos take up
+   *
+   * @return The size of the decoded photos in bytes
+   */
+  private synchronized double getUsedBytes() {
+    return usedBytes;
+  }
+
+  /**
+   * Remove the least recently used photos until we are within budget. The
+   * photo just added always stays, however big it is
+   */
+  private void evict() {
+    Iterator<Image> iterator = images.values().iterator();
+
+    while (usedBytes > maxBytes && images.size() > 1) {
+      usedBytes -= bytes(iterator.next());
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Decode a cached photo
+   *
+   * @param file The cache file
+   * @return The photo or null if it cannot be decoded
+   */
+  private Image load(Path file) {
+    Image image;
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a cached photo");
+      }
+
+      readHeader(in);
+
+      /* Scaled in case it was stored at another size and not yet replaced */
+      image = new Image(in, thumbnailSize, thumbnailSize, true, true);
+    } catch (IOException ioe) {
+      logger.log(Level.WARNING, "Unable to read cached photo " + file, ioe);
+      return null;
+    }
+
+    if (image.isError()) {
+      logger.log(Level.WARNING, "Unable to decode cached photo " + file,
+          image.getException());
+      return null;
+    }
+
+    return image;
+  }
+
+  /**
+   * Create the contents of a cache file for a photo
+   *
+   * @param sourceURL Where the photo came from
+   * @param original The photo as downloaded
+   * @param hash The SHA-256 of the photo
+   * @return The header followed by the thumbnail
+   * @throws IOException If the photo cannot be decoded
+   */
+  private byte[] encode(String sourceURL, byte[] original, byte[] hash)
+      throws IOException {
+    BufferedImage source = ImageIO.read(new ByteArrayInputStream(original));
+
+    if (source == null) {
+      throw new IOException("Unrecognised image format");
+    }
+
+    ByteArrayOutputStream contents = new ByteArrayOutputStream(16384);
+    DataOutputStream out = new DataOutputStream(contents);
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeUTF(sourceURL);
+    out.writeShort(thumbnailSize);
+    out.writeShort(hash.length);
+    out.write(hash);
+    ImageIO.write(thumbnail(source), "png", out);
+    out.flush();
+    return contents.toByteArray();
+  }
+
+  /**
+   * Read the rest of the header of a cache file, after the magic number
+   *
+   * @param in Where to read the header from
+   * @return The header
+   * @throws IOException If the header is not one we understand
+   */
+  private static Header readHeader(DataInputStream in) throws IOException {
+    int version = in.readUnsignedShort();
+
+    if (version != VERSION) {
+      throw new IOException("Unknown photo format version " + version);
+    }
+
+    String sourceURL = in.readUTF();
+    int size = in.readUnsignedShort();
+    byte[] hash = new byte[in.readUnsignedShort()];
+    in.readFully(hash);
+    return new Header(sourceURL, size, toHex(hash));
+  }
+
+  /**
+   * Make a thumbnail from the middle square of an image. Large images are
+   * halved repeatedly before the final scale, which looks much better than
+   * a single bilinear step
+   *
+   * @param source The original image
+   * @return The square thumbnail
+   */
+  private BufferedImage thumbnail(BufferedImage source) {
+    int square = Math.min(source.getWidth(), source.getHeight());
+    BufferedImage image = source.getSubimage(
+        (source.getWidth() - square) / 2, (source.getHeight() - square) / 2,
+        square, square);
+    int size = square;
+
+    do {
+      size = Math.max(size / 2, thumbnailSize);
+
+      if (size * 2 > square) {
+        size = thumbnailSize;
+      }
+
+      BufferedImage scaled
+          = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D graphics = scaled.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, size, size, null);
+      graphics.dispose();
+      image = scaled;
+      square = size;
+    } while (size != thumbnailSize);
+
+    return image;
+  }
+
+  private static byte[] sha256(byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new IllegalStateException(nsae);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+      hex.append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return hex.toString();
+  }
+
+  private static boolean isHashName(String name) {
+    if (name.length() != 64) {
+      return false;
+    }
+
+    for (int i = 0; i < name.length(); i++) {
+      if (Character.digit(name.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static long bytes(Image image) {
+    return (long)image.getWidth() * (long)image.getHeight() * 4;
+  }
+
+  /**
+   * Writes the contents of a file
+   */
+  private interface Writer {
+
+    void write(OutputStream out) throws IOException;
+  }
+
+  /**
+   * A thumbnail as stored in the cache
+   */
+  public static final class Thumbnail {
+
+    public final String sourceURL;
+    public final String hash;
+    public final byte[] png;
+
+    Thumbnail(String sourceURL, String hash, byte[] png) {
+      this.sourceURL = sourceURL;
+      this.hash = hash;
+      this.png = png;
+    }
+  }
+
+  /**
+   * The header of a cache file
+   */
+  private static final class Header {
+
+    final String url;
+    final int size;
+    final String hash;
+
+    Header(String url, int size, String hash) {
+      this.url = url;
+      this.size = size;
+      this.hash = hash;
+    }
+
+    /**
+     * Make an index entry for the photo
+     *
+     * @param fetched When the photo was fetched
+     * @return The entry
+     */
+    Entry toEntry(long fetched) {
+      return new Entry(url, hash, fetched, null, null);
+    }
+  }
+
+  /**
+   * What the index knows about a speaker's photo
+   */
+  private static final class Entry {
+
+    final String url;
+    final String hash;
+    final long fetched;
+    final String etag;
+    final String lastModified;
+
+    Entry(String url, String hash, long fetched, String etag,
+        String lastModified) {
+      this.url = url;
+      this.hash = hash;
+      this.fetched = fetched;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Parse an entry saved by toString()
+     *
+     * @param value The saved entry
+     * @return The entry or null if it is badly formed
+     */
+    static Entry parse(String value) {
+      String[] fields = value.split("\t", -1);
+
+      if (fields.length != 5 || !isHashName(fields[1])) {
+        return null;
+      }
+
+      try {
+        return new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+            fields[3].isEmpty() ? null : fields[3],
+            fields[4].isEmpty() ? null : fields[4]);
+      } catch (NumberFormatException nfe) {
+        return null;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return url + '\t' + hash + '\t' + fetched + '\t'
+          + (etag == null ? "" : etag) + '\t'
+          + (lastModified == null ? "" : lastModified);
+    }
+  }
+}
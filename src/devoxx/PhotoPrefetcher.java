@@ -0,0 +1,215 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches speaker photos in the background using a small, bounded pool of
+ * threads. Requests are prioritised so the photos of the sessions that are
+ * on screen now (or next) are fetched before everyone else's.
+ *
+ * A photo that can't be fetched (it isn't there, or isn't an image) isn't
+ * tried again straight away, as every screen update and data refresh asks
+ * for it again: it is left for a minute, then two, doubling up to an hour,
+ * unless the speaker's photo URL changes.
+ */
+public class PhotoPrefetcher {
+
+  /* Photos needed for what is on the screen now or next */
+  public static final int PRIORITY_HIGH = 0;
+  /* Everyone else, fetched when there is nothing more urgent */
+  public static final int PRIORITY_LOW = 1;
+
+  private static final long RETRY_MIN = TimeUnit.MINUTES.toNanos(1);
+  private static final long RETRY_MAX = TimeUnit.HOURS.toNanos(1);
+
+  private final Logger logger;
+  private final ThreadPoolExecutor executor;
+  private final Map<String, Integer> queued = new ConcurrentHashMap<>();
+  private final Set<String> running = ConcurrentHashMap.newKeySet();
+  private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final List<Consumer<Speaker>> listeners
+      = new CopyOnWriteArrayList<>();
+
+  /**
+   * Constructor
+   *
+   * @param logger Where to log messages to
+   * @param threads The maximum number of photos to fetch at once
+   */
+  public PhotoPrefetcher(Logger logger, int threads) {
+    this.logger = logger;
+    executor = new ThreadPoolExecutor(threads, threads, 0,
+        TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r -> {
+          Thread thread = new Thread(r, "photo-prefetcher");
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    Metrics.gauge("signage_photo_prefetch_queue",
+        "Speaker photos waiting to be fetched",
+        () -> executor.getQueue().size());
+  }
+
+  /**
+   * Be told whenever a photo has been cached, e.g. to redraw a screen that
+   * is showing the speaker without it. Listeners are called on a prefetch
+   * thread
+   *
+   * @param listener Called with the speaker whose photo is now cached
+   */
+  public void addListener(Consumer<Speaker> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Ask for a speaker's photo to be cached. Photos that are already cached,
+   * already being fetched, already queued at the same or a higher priority
+   * or that failed recently are ignored.
+   *
+   * @param speaker The speaker whose photo we want
+   * @param priority PRIORITY_HIGH or PRIORITY_LOW
+   */
+  public void prefetch(Speaker speaker, int priority) {
+    if (speaker.isPhotoCached() || running.contains(speaker.uuid)) {
+      return;
+    }
+
+    Failure failure = failures.get(speaker.uuid);
+
+    if (failure != null && Objects.equals(failure.url, speaker.downloadURL)
+        && System.nanoTime() - failure.retryAt < 0) {
+      return;
+    }
+
+    Integer current = queued.get(speaker.uuid);
+
+    if (current != null && current <= priority) {
+      return;
+    }
+
+    queued.put(speaker.uuid, priority);
+    executor.execute(
+        new PrefetchTask(speaker, priority, sequence.getAndIncrement()));
+  }
+
+  /**
+   * Ask for the photos of all the speakers of some presentations to be
+   * cached
+   *
+   * @param presentations The presentations (null entries are ignored)
+   * @param priority PRIORITY_HIGH or PRIORITY_LOW
+   */
+  public void prefetch(Iterable<Presentation> presentations, int priority) {
+    for (Presentation presentation : presentations) {
+      if (presentation != null && presentation.speakers != null) {
+        for (Speaker speaker : presentation.speakers) {
+          prefetch(speaker, priority);
+        }
+      }
+    }
+  }
+
+  /**
+   * Remember that a speaker's photo couldn't be fetched, so it isn't tried
+   * again for a while
+   *
+   * @param speaker The speaker
+   */
+  private void failed(Speaker speaker) {
+    String url = speaker.downloadURL;
+    Failure failure = failures.compute(speaker.uuid, (uuid, last) -> {
+      int count = last != null && Objects.equals(last.url, url)
+          ? last.count + 1 : 1;
+      long delay = Math.min(RETRY_MAX, RETRY_MIN << Math.min(count - 1, 10));
+      return new Failure(url, count, System.nanoTime() + delay);
+    });
+
+    logger.fine("Not trying the photo for " + speaker + " again for "
+        + Math.round((failure.retryAt - System.nanoTime())
+            / (double) TimeUnit.MINUTES.toNanos(1)) + " minutes");
+  }
+
+  /**
+   * A photo that couldn't be fetched
+   */
+  private static final class Failure {
+
+    final String url;
+    final int count;
+    final long retryAt;
+
+    Failure(String url, int count, long retryAt) {
+      this.url = url;
+      this.count = count;
+      this.retryAt = retryAt;
+    }
+  }
+
+  /**
+   * A queued photo fetch. Ordered by priority, then first come first served
+   */
+  private class PrefetchTask implements Runnable, Comparable<PrefetchTask> {
+
+    private final Speaker speaker;
+    private final int priority;
+    private final long order;
+
+    PrefetchTask(Speaker speaker, int priority, long order) {
+      this.speaker = speaker;
+      this.priority = priority;
+      this.order = order;
+    }
+
+    @Override
+    public void run() {
+      /* A later request may have queued this at a higher priority and got
+       * here first, in which case there is nothing left to do
+       */
+      if (!queued.remove(speaker.uuid, priority)
+          || !running.add(speaker.uuid)) {
+        return;
+      }
+
+      try {
+        speaker.cachePhoto();
+
+        if (speaker.isPhotoCached()) {
+          failures.remove(speaker.uuid);
+          listeners.forEach(listener -> listener.accept(speaker));
+        } else {
+          failed(speaker);
+        }
+      } catch (RuntimeException re) {
+        logger.log(Level.WARNING, "Photo prefetch failed for " + speaker, re);
+        failed(speaker);
+      } finally {
+        running.remove(speaker.uuid);
+      }
+    }
+
+    @Override
+    public int compareTo(PrefetchTask other) {
+      if (priority != other.priority) {
+        return Integer.compare(priority, other.priority);
+      }
+
+      return Long.compare(order, other.order);
+    }
+  }
+}
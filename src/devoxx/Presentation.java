@@ -5,6 +5,7 @@ package devoxx;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.logging.Logger;
 
 /**
@@ -63,6 +64,39 @@ public class Presentation {
         this.type = type;
     }
 
+    /**
+     * Create a copy of this presentation with a different set of speakers
+     *
+     * @param speakers The speakers for the copy
+     * @return The new presentation
+     */
+    public Presentation withSpeakers(Speaker[] speakers) {
+        Presentation copy = new Presentation(null, id, title, room, fromTime,
+            toTime, length);
+        copy.setExtended(summary, speakers, track, type);
+        return copy;
+    }
+
+    /**
+     * Check whether another presentation has the same content as this one,
+     * i.e. whether it would look any different on the screen
+     *
+     * @param other The presentation to compare to
+     * @return true if every displayed field and the speakers are the same
+     */
+    public boolean sameContent(Presentation other) {
+        return Objects.equals(id, other.id)
+            && Objects.equals(title, other.title)
+            && Objects.equals(room, other.room)
+            && Objects.equals(fromTime, other.fromTime)
+            && Objects.equals(toTime, other.toTime)
+            && length == other.length
+            && Objects.equals(summary, other.summary)
+            && Objects.equals(track, other.track)
+            && Objects.equals(type, other.type)
+            && Arrays.equals(speakers, other.speakers);
+    }
+
     /**
      * Create a nice readable string representation of the object
      *
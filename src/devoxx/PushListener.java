@@ -0,0 +1,156 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Listens to a hub's stream of changes (Server-Sent Events), so a screen
+ * hears about a change to the schedule as soon as the hub does, rather than
+ * at its next poll. Runs on its own (daemon) thread, reconnecting whenever
+ * the stream drops; the screen should keep polling while it isn't
+ * connected.
+ *
+ * The hub sends a keepalive comment every 30 seconds, so a stream we
+ * haven't heard anything on for much longer than that is treated as dropped
+ * even if the connection hasn't noticed.
+ *
+ * The stream is a connection of its own, not one of the HttpFetcher's, as
+ * it stays open for as long as the screen is listening.
+ */
+public class PushListener {
+
+  private static final int READ_TIMEOUT = 90;
+  private static final long RETRY_DELAY = 30;
+
+  private final Logger logger;
+  private final String url;
+  private final int timeout;
+  private final Runnable onConnect;
+  private final Consumer<ScheduleChanges> onChanges;
+  private volatile boolean connected;
+
+  /**
+   * Constructor
+   *
+   * @param logger Where to log messages to
+   * @param url The hub's stream of changes
+   * @param timeout Connect timeout (in seconds)
+   * @param onConnect Called each time we connect, as changes may have been
+   * missed while we weren't
+   * @param onChanges Called with each change the hub pushes
+   */
+  public PushListener(Logger logger, String url, int timeout,
+      Runnable onConnect, Consumer<ScheduleChanges> onChanges) {
+    this.logger = logger;
+    this.url = url;
+    this.timeout = timeout * 1000;
+    this.onConnect = onConnect;
+    this.onChanges = onChanges;
+  }
+
+  /**
+   * Start listening
+   */
+  public void start() {
+    Thread thread = new Thread(this::run, "push-listener");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Are we hearing about changes as they happen
+   *
+   * @return True if we are connected to the hub
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Listen, and keep reconnecting
+   */
+  private void run() {
+    while (true) {
+      try {
+        listen();
+        logger.warning("Stream of changes from " + url + " ended");
+      } catch (IOException ioe) {
+        logger.warning("Lost stream of changes from " + url + " ("
+            + ioe.getMessage() + "), polling for changes instead");
+      } catch (RuntimeException e) {
+        logger.log(Level.SEVERE, "Unable to handle pushed changes", e);
+      }
+
+      connected = false;
+
+      try {
+        TimeUnit.SECONDS.sleep(RETRY_DELAY);
+      } catch (InterruptedException ie) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Connect and pass on the events until the stream ends
+   *
+   * @throws IOException If the stream cannot be read
+   */
+  private void listen() throws IOException {
+    HttpURLConnection connection
+        = (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(timeout);
+    connection.setReadTimeout(READ_TIMEOUT * 1000);
+    connection.setRequestProperty("Accept", "text/event-stream");
+
+    if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+      connection.disconnect();
+      throw new IOException("HTTP " + connection.getResponseCode());
+    }
+
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        connection.getInputStream(), StandardCharsets.UTF_8))) {
+      logger.info("Listening for changes from " + url);
+      connected = true;
+      onConnect.run();
+      String event = null;
+      StringBuilder data = new StringBuilder();
+      String line;
+
+      /* An event is a group of fields ended by a blank line; lines starting
+       * with a colon are comments (keepalives)
+       */
+      while ((line = in.readLine()) != null) {
+        if (line.isEmpty()) {
+          if ("changes".equals(event) && data.length() > 0) {
+            ScheduleChanges changes = ScheduleChanges.fromJson(data.toString());
+            logger.fine("Changes pushed " + changes);
+            onChanges.accept(changes);
+          }
+
+          event = null;
+          data.setLength(0);
+        } else if (line.startsWith("event:")) {
+          event = line.substring("event:".length()).trim();
+        } else if (line.startsWith("data:")) {
+          if (data.length() > 0) {
+            data.append('\n');
+          }
+
+          data.append(line.substring("data:".length()).trim());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the data refresh: every interval while it works, and sooner when it
+ * doesn't, backing off exponentially (5s, 10s, 20s...) so a server that is
+ * struggling isn't made worse. After FAILURE_THRESHOLD failures in a row the
+ * circuit opens and nothing is tried for MAX_BACKOFF, or the interval if
+ * that is longer, after which a single refresh probes whether the server is
+ * back; if it is, refreshes carry on as normal, otherwise the circuit opens
+ * again. So a server that stays down gets four quick retries (after up to
+ * 5s, 10s, 20s and 40s, as half of each is random), then one probe per
+ * MAX_BACKOFF or interval, whichever is longer, plus any asked for by
+ * refreshNow().
+ *
+ * Every delay is jittered, so a room full of screens that started (or lost
+ * the server) at the same moment don't all ask at the same moment ever
+ * after.
+ *
+ * Everything runs on the given executor, which must be single threaded.
+ */
+public class RefreshScheduler {
+
+  /**
+   * The state of the circuit breaker
+   */
+  public static enum State {
+
+    /* Refreshing as normal */
+    CLOSED,
+    /* Failed too often, not refreshing for a while */
+    OPEN,
+    /* Trying a refresh to see if the server is back */
+    HALF_OPEN
+  };
+
+  private static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(5);
+  private static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+  private static final int FAILURE_THRESHOLD = 5;
+  private static final double JITTER = 0.1;
+
+  private static final Metrics.Counter failuresTotal = Metrics.counter(
+      "signage_refresh_failures_total", "Data refreshes that failed");
+
+  private final Logger logger;
+  private final ScheduledExecutorService executor;
+  private final long interval;
+  private final long maxBackoff;
+  private final BooleanSupplier refresh;
+  private final BooleanSupplier idle;
+  private volatile State state = State.CLOSED;
+  private int failures;
+  private long lastAttempt;
+  private ScheduledFuture<?> next;
+
+  /**
+   * Constructor
+   *
+   * @param logger Where to log messages to
+   * @param executor The (single threaded) executor to refresh on
+   * @param interval How long (in milliseconds) between refreshes while they
+   * work
+   * @param refresh Refreshes the data, returning whether the server
+   * answered
+   * @param idle Whether the regular refresh can be skipped, e.g. because
+   * changes are being pushed to us. Retries after a failure are never
+   * skipped
+   */
+  public RefreshScheduler(Logger logger, ScheduledExecutorService executor,
+      long interval, BooleanSupplier refresh, BooleanSupplier idle) {
+    this.logger = logger;
+    this.executor = executor;
+    this.interval = interval;
+    maxBackoff = Math.max(MAX_BACKOFF, interval);
+    this.refresh = refresh;
+    this.idle = idle;
+    Metrics.gauge("signage_refresh_circuit_state",
+        "Data refresh circuit breaker (0 closed, 1 open, 2 half open)",
+        () -> state.ordinal());
+  }
+
+  /**
+   * Start refreshing, straight away
+   */
+  public void start() {
+    executor.execute(() -> schedule(0));
+  }
+
+  /**
+   * Start refreshing, having just tried to refresh the data
+   *
+   * @param refreshed Whether that worked, in which case the next refresh is
+   * after the interval, otherwise it is the first failure
+   */
+  public void start(boolean refreshed) {
+    executor.execute(() -> completed(refreshed));
+  }
+
+  /**
+   * Refresh now, e.g. when told the data has changed. While the circuit is
+   * open this is taken as a probe, but no more often than the shortest
+   * backoff
+   */
+  public void refreshNow() {
+    executor.execute(() -> {
+      if (state == State.OPEN
+          && System.nanoTime() - lastAttempt
+          < TimeUnit.MILLISECONDS.toNanos(MIN_BACKOFF)) {
+        logger.fine("Data refresh circuit open, not refreshing");
+        return;
+      }
+
+      schedule(0);
+    });
+  }
+
+  /**
+   * Get the state of the circuit breaker
+   *
+   * @return The state
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Arrange the next refresh, replacing any already arranged
+   *
+   * @param delay How long to wait (in milliseconds)
+   */
+  private void schedule(long delay) {
+    if (next != null) {
+      next.cancel(false);
+    }
+
+    next = executor.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Refresh, if we should, and work out when to next
+   */
+  private void run() {
+    if (state == State.OPEN) {
+      logger.info("Checking whether the data refresh works again");
+      state = State.HALF_OPEN;
+    } else if (failures == 0 && idle.getAsBoolean()) {
+      schedule(jitter(interval));
+      return;
+    }
+
+    lastAttempt = System.nanoTime();
+    boolean refreshed;
+
+    try {
+      refreshed = refresh.getAsBoolean();
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "Background update failed", e);
+      refreshed = false;
+    }
+
+    completed(refreshed);
+  }
+
+  /**
+   * Work out when to refresh next
+   *
+   * @param refreshed Whether the last refresh worked
+   */
+  private void completed(boolean refreshed) {
+    if (refreshed) {
+      if (failures > 0) {
+        logger.info("Data refresh working again after " + failures
+            + " failures");
+      }
+
+      state = State.CLOSED;
+      failures = 0;
+      schedule(jitter(interval));
+      return;
+    }
+
+    failures++;
+    failuresTotal.inc();
+
+    if (state == State.HALF_OPEN || failures >= FAILURE_THRESHOLD) {
+      long delay = jitter(maxBackoff);
+      logger.warning("Data refresh failed " + failures
+          + " times, not trying again for " + delay / 1000 + "s");
+      state = State.OPEN;
+      schedule(delay);
+    } else {
+      /* Half the backoff is random, so retries spread out quickly */
+      long backoff = Math.min(maxBackoff, MIN_BACKOFF << (failures - 1));
+      long delay = backoff / 2
+          + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+      logger.info("Data refresh failed, trying again in " + delay / 1000
+          + "s");
+      schedule(delay);
+    }
+  }
+
+  /**
+   * Vary a delay randomly by up to JITTER either way
+   *
+   * @param delay The delay (in milliseconds)
+   * @return The jittered delay
+   */
+  private static long jitter(long delay) {
+    return (long) (delay * (1 - JITTER
+        + ThreadLocalRandom.current().nextDouble(2 * JITTER)));
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import javafx.application.Platform;
+
+/**
+ * The state of one screen: which room it shows and which presentations are
+ * currently on it. Several of these can be driven from the same data.
+ */
+public class RoomDisplay {
+
+    private final Logger logger;
+    private final String room;
+    private final FXMLDocumentController screenController;
+    private final PhotoPrefetcher photoPrefetcher;
+    private Presentation firstPresentation;
+    private Presentation secondPresentation;
+    private Presentation thirdPresentation;
+
+    /**
+     * Constructor
+     *
+     * @param logger Where to log messages to
+     * @param room The room id used by the CFP web service (e.g. room5)
+     * @param screenController The controller of the screen for the room
+     * @param photoPrefetcher Where to ask for speaker photos to be cached
+     */
+    public RoomDisplay(Logger logger, String room,
+        FXMLDocumentController screenController,
+        PhotoPrefetcher photoPrefetcher) {
+        this.logger = logger;
+        this.room = room;
+        this.screenController = screenController;
+        this.photoPrefetcher = photoPrefetcher;
+    }
+
+    /**
+     * Get the room this display is for
+     *
+     * @return The room id
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Get the controller for the screen
+     *
+     * @return The screen controller
+     */
+    public FXMLDocumentController getScreenController() {
+        return screenController;
+    }
+
+    /**
+     * Redraw the screen if it is showing a speaker whose photo has just been
+     * cached, as it was drawn without the photo. Called on the same thread
+     * as update()
+     *
+     * @param speaker The speaker whose photo is now cached
+     */
+    public void photoCached(Speaker speaker) {
+        if (firstPresentation == null || firstPresentation.speakers == null
+            || Arrays.stream(firstPresentation.speakers)
+            .noneMatch(s -> s.uuid.equals(speaker.uuid))) {
+            return;
+        }
+
+        logger.finer("Photo for " + speaker + " arrived, redrawing " + room);
+        ScreenState state = new ScreenState(
+            firstPresentation, secondPresentation, thirdPresentation);
+        Platform.runLater(() -> screenController.setScreenData(state));
+    }
+
+    /**
+     * Update the screen to show what is on now and next. This is called off
+     * the JavaFX application thread; if anything has changed the new screen
+     * state is prepared here and only applied on the application thread
+     *
+     * @param schedule The schedule for this room
+     * @param now The current time
+     */
+    public void update(Schedule schedule, LocalDateTime now) {
+        List<Presentation> newPresentations = schedule.upcoming(now, 3);
+
+        /* Make sure the photos for these jump the prefetch queue */
+        photoPrefetcher.prefetch(newPresentations,
+            PhotoPrefetcher.PRIORITY_HIGH);
+        Presentation first
+            = newPresentations.size() >= 1 ? newPresentations.get(0) : null;
+        Presentation second
+            = newPresentations.size() >= 2 ? newPresentations.get(1) : null;
+        Presentation third
+            = newPresentations.size() >= 3 ? newPresentations.get(2) : null;
+
+        /* Unchanged presentations keep the same object across data updates,
+         * so a reference comparison tells us whether anything needs redrawing
+         */
+        if (first != firstPresentation || second != secondPresentation
+            || third != thirdPresentation) {
+            firstPresentation = first;
+            secondPresentation = second;
+            thirdPresentation = third;
+            ScreenState state = new ScreenState(
+                firstPresentation, secondPresentation, thirdPresentation);
+            Platform.runLater(() -> screenController.setScreenData(state));
+            logger.finer("New presentation in " + room + ": "
+                + firstPresentation);
+
+            if (secondPresentation != null) {
+                logger.finer("Second presentation: " + secondPresentation);
+            }
+
+            if (thirdPresentation != null) {
+                logger.finer("Third presentation: " + thirdPresentation);
+            }
+        }
+    }
+}
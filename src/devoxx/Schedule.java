@@ -0,0 +1,146 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, time-indexed view of a set of presentations. Presentations
+ * are held in start time order alongside a running maximum of their end
+ * times, so finding the first session that has not yet finished is a binary
+ * search rather than a scan of the whole list.
+ */
+public class Schedule {
+
+  public static final Schedule EMPTY
+      = new Schedule(Collections.<Presentation>emptyList());
+
+  private final Presentation[] presentations;
+  private final long[] maxEndTimes;
+
+  /**
+   * Constructor
+   *
+   * @param presentations The presentations to index
+   */
+  public Schedule(Collection<Presentation> presentations) {
+    this.presentations
+        = presentations.toArray(new Presentation[presentations.size()]);
+    Arrays.sort(this.presentations,
+        (s1, s2) -> s1.fromTime.compareTo(s2.fromTime));
+    maxEndTimes = new long[this.presentations.length];
+    long max = Long.MIN_VALUE;
+
+    for (int i = 0; i < this.presentations.length; i++) {
+      max = Math.max(max, epochSecond(this.presentations[i].toTime));
+      maxEndTimes[i] = max;
+    }
+  }
+
+  /**
+   * Get all the presentations
+   *
+   * @return The presentations in start time order
+   */
+  public List<Presentation> getPresentations() {
+    return Collections.unmodifiableList(Arrays.asList(presentations));
+  }
+
+  /**
+   * Get the number of presentations
+   *
+   * @return The number of presentations
+   */
+  public int size() {
+    return presentations.length;
+  }
+
+  /**
+   * Find the sessions that are on now or coming up next
+   *
+   * @param now The time to look from
+   * @param count The maximum number of sessions to return
+   * @return Up to count sessions that end after now, in start time order
+   */
+  public List<Presentation> upcoming(LocalDateTime now, int count) {
+    List<Presentation> result = new ArrayList<>(count);
+
+    for (int i = firstUnfinished(now);
+        i < presentations.length && result.size() < count; i++) {
+      if (now.isBefore(presentations[i].toTime)) {
+        result.add(presentations[i]);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Find when the sessions on now or coming up next will next change, which
+   * is when the first session still to finish ends
+   *
+   * @param now The time to look from
+   * @return The earliest end time after now, or null if every session has
+   * finished
+   */
+  public LocalDateTime nextChange(LocalDateTime now) {
+    LocalDateTime next = null;
+
+    /* Sessions are in start time order and none ends before it starts, so
+     * once a session starts after the best end time found nothing later can
+     * beat it
+     */
+    for (int i = firstUnfinished(now); i < presentations.length; i++) {
+      Presentation presentation = presentations[i];
+
+      if (next != null && !presentation.fromTime.isBefore(next)) {
+        break;
+      }
+
+      if (now.isBefore(presentation.toTime)
+          && (next == null || presentation.toTime.isBefore(next))) {
+        next = presentation.toTime;
+      }
+    }
+
+    return next;
+  }
+
+  /**
+   * Find the first session (in start time order) that ends after now. The
+   * first session to end after now is also the first place the running
+   * maximum passes now, and that is sorted so we can search it
+   *
+   * @param now The time to look from
+   * @return The index of the session, or the number of sessions if every
+   * session has finished
+   */
+  private int firstUnfinished(LocalDateTime now) {
+    long nowSecond = epochSecond(now);
+    int low = 0;
+    int high = maxEndTimes.length;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (maxEndTimes[mid] > nowSecond) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+
+    return low;
+  }
+
+  private static long epochSecond(LocalDateTime time) {
+    return time.toEpochSecond(ZoneOffset.UTC);
+  }
+}
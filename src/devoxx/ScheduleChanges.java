@@ -0,0 +1,140 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import devoxx.JSONParserJP.CallbackAdapter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The set of sessions that changed between two updates of the schedule data,
+ * identified by presentation id.
+ */
+public class ScheduleChanges {
+
+  public static final ScheduleChanges NONE = new ScheduleChanges(
+      Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+
+  public final Set<String> added;
+  public final Set<String> removed;
+  public final Set<String> changed;
+
+  /**
+   * Constructor
+   *
+   * @param added Ids of presentations that are new
+   * @param removed Ids of presentations that have gone
+   * @param changed Ids of presentations whose content has changed
+   */
+  public ScheduleChanges(Set<String> added, Set<String> removed,
+      Set<String> changed) {
+    this.added = Collections.unmodifiableSet(added);
+    this.removed = Collections.unmodifiableSet(removed);
+    this.changed = Collections.unmodifiableSet(changed);
+  }
+
+  /**
+   * Is there anything to do
+   *
+   * @return True if no presentation was added, removed or changed
+   */
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+  }
+
+  /**
+   * Write the changes as JSON, e.g. for a hub to push to the screens
+   *
+   * @return The ids of each kind of change as a JSON object
+   */
+  public String toJson() {
+    return "{\"added\":" + toJson(added) + ",\"removed\":" + toJson(removed)
+        + ",\"changed\":" + toJson(changed) + "}";
+  }
+
+  /**
+   * Read changes written by toJson()
+   *
+   * @param json The changes as JSON
+   * @return The changes
+   * @throws IOException If the JSON is not valid
+   */
+  public static ScheduleChanges fromJson(String json) throws IOException {
+    Set<String> added = new HashSet<>();
+    Set<String> removed = new HashSet<>();
+    Set<String> changed = new HashSet<>();
+
+    JSONParserJP.parse(new StringReader(json), new CallbackAdapter() {
+      private Set<String> ids;
+
+      @Override
+      public boolean startArray(String arrayName, int depth) {
+        if ("added".equals(arrayName)) {
+          ids = added;
+        } else if ("removed".equals(arrayName)) {
+          ids = removed;
+        } else if ("changed".equals(arrayName)) {
+          ids = changed;
+        } else {
+          ids = null;
+        }
+
+        return false;
+      }
+
+      @Override
+      public void stringValue(String value, int depth) {
+        if (ids != null) {
+          ids.add(value);
+        }
+      }
+    });
+
+    return new ScheduleChanges(added, removed, changed);
+  }
+
+  private static String toJson(Set<String> ids) {
+    StringBuilder json = new StringBuilder("[");
+
+    for (String id : ids) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+
+      json.append('"');
+
+      for (int i = 0; i < id.length(); i++) {
+        char c = id.charAt(i);
+
+        if (c == '"' || c == '\\') {
+          json.append('\\');
+        }
+
+        if (c < ' ') {
+          json.append(String.format("\\u%04x", (int) c));
+        } else {
+          json.append(c);
+        }
+      }
+
+      json.append('"');
+    }
+
+    return json.append(']').toString();
+  }
+
+  /**
+   * Summarise the changes
+   *
+   * @return The number of each kind of change
+   */
+  @Override
+  public String toString() {
+    return "{added=" + added.size() + ", removed=" + removed.size()
+        + ", changed=" + changed.size() + "}";
+  }
+}
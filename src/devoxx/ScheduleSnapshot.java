@@ -0,0 +1,295 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A binary copy of the parsed data: the speakers and each room's
+ * presentations. Written after every refresh that changes something and
+ * read (memory mapped) at startup, so the screens can show the right
+ * sessions straight away without parsing any JSON or waiting for the
+ * network.
+ *
+ * The file is
+ *
+ *   int    magic ("DVXS")
+ *   int    format version
+ *   int    length of the data that follows
+ *   long   CRC32 of the data
+ *   data   speakers, then rooms (see write())
+ *
+ * A snapshot that is truncated, corrupt, from a different version or that
+ * refers to a speaker it doesn't contain is ignored, in which case we just
+ * start the slow way.
+ */
+public class ScheduleSnapshot {
+
+  private static final int MAGIC = 0x44565853;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 20;
+  private static final int NULL_STRING = -1;
+
+  public final Map<String, Speaker> speakers;
+  public final Map<String, List<Presentation>> rooms;
+
+  private ScheduleSnapshot(Map<String, Speaker> speakers,
+      Map<String, List<Presentation>> rooms) {
+    this.speakers = speakers;
+    this.rooms = rooms;
+  }
+
+  /**
+   * Save a snapshot. It is written to a temporary file and moved into place,
+   * so a power cut part way through leaves the previous snapshot intact
+   *
+   * @param file Where to save the snapshot
+   * @param speakers All the speakers
+   * @param rooms The presentations for each room
+   * @throws IOException If the snapshot cannot be written
+   */
+  public static void save(Path file, Collection<Speaker> speakers,
+      Map<String, List<Presentation>> rooms) throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream(65536);
+    write(new DataOutputStream(data), speakers, rooms);
+    byte[] bytes = data.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+
+    Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(bytes.length);
+        out.writeLong(crc.getValue());
+        out.write(bytes);
+      }
+
+      try {
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException amnse) {
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  /**
+   * Load a snapshot
+   *
+   * @param logger Where to log messages to
+   * @param file Where the snapshot is saved
+   * @param photoCache Photo cache for the speakers
+   * @return The snapshot, or null if there isn't a usable one
+   */
+  public static ScheduleSnapshot load(Logger logger, Path file,
+      PhotoCache photoCache) {
+    if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.READ)) {
+      MappedByteBuffer buffer
+          = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+        logger.warning("Snapshot " + file + " is not a snapshot");
+        return null;
+      }
+
+      int version = buffer.getInt();
+
+      if (version != VERSION) {
+        logger.info("Ignoring snapshot " + file + " from version " + version);
+        return null;
+      }
+
+      int length = buffer.getInt();
+      long checksum = buffer.getLong();
+
+      if (length != buffer.remaining()) {
+        logger.warning("Snapshot " + file + " is truncated");
+        return null;
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(buffer.duplicate());
+
+      if (crc.getValue() != checksum) {
+        logger.warning("Snapshot " + file + " is corrupt");
+        return null;
+      }
+
+      return read(logger, buffer, photoCache);
+    } catch (IOException | BufferUnderflowException
+        | IllegalArgumentException e) {
+      logger.log(Level.WARNING, "Unable to read snapshot " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Write the speakers and rooms. Each speaker is uuid, name and photo URL.
+   * Each room is its name and a count of presentations, each of which is id,
+   * title, room, start and end (epoch seconds), length, summary, track,
+   * type and the uuids of its speakers
+   *
+   * @param out Where to write to
+   * @param speakers The speakers
+   * @param rooms The presentations for each room
+   * @throws IOException If the data cannot be written
+   */
+  private static void write(DataOutputStream out,
+      Collection<Speaker> speakers, Map<String, List<Presentation>> rooms)
+      throws IOException {
+    out.writeInt(speakers.size());
+
+    for (Speaker speaker : speakers) {
+      writeString(out, speaker.uuid);
+      writeString(out, speaker.fullName);
+      writeString(out, speaker.downloadURL);
+    }
+
+    out.writeInt(rooms.size());
+
+    for (Map.Entry<String, List<Presentation>> room : rooms.entrySet()) {
+      writeString(out, room.getKey());
+      out.writeInt(room.getValue().size());
+
+      for (Presentation presentation : room.getValue()) {
+        writeString(out, presentation.id);
+        writeString(out, presentation.title);
+        writeString(out, presentation.room);
+        out.writeLong(presentation.fromTime.toEpochSecond(ZoneOffset.UTC));
+        out.writeLong(presentation.toTime.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(presentation.length);
+        writeString(out, presentation.summary);
+        writeString(out, presentation.track);
+        writeString(out, presentation.type);
+        out.writeInt(presentation.speakers.length);
+
+        for (Speaker speaker : presentation.speakers) {
+          writeString(out, speaker.uuid);
+        }
+      }
+    }
+
+    out.flush();
+  }
+
+  /**
+   * Read the speakers and rooms written by write()
+   *
+   * @param logger Where to log messages to
+   * @param in The data
+   * @param photoCache Photo cache for the speakers
+   * @return The snapshot
+   * @throws IOException If a presentation's speaker isn't in the snapshot
+   */
+  private static ScheduleSnapshot read(Logger logger, ByteBuffer in,
+      PhotoCache photoCache) throws IOException {
+    Map<String, Speaker> speakers = new HashMap<>();
+    int speakerCount = in.getInt();
+
+    for (int i = 0; i < speakerCount; i++) {
+      Speaker speaker = new Speaker(logger, readString(in), readString(in),
+          readString(in), photoCache);
+      speakers.put(speaker.uuid, speaker);
+    }
+
+    Map<String, List<Presentation>> rooms = new HashMap<>();
+    int roomCount = in.getInt();
+
+    for (int i = 0; i < roomCount; i++) {
+      String room = readString(in);
+      int presentationCount = in.getInt();
+      List<Presentation> presentations = new ArrayList<>(presentationCount);
+
+      for (int j = 0; j < presentationCount; j++) {
+        Presentation presentation = new Presentation(logger, readString(in),
+            readString(in), readString(in), readTime(in), readTime(in),
+            in.getInt());
+        String summary = readString(in);
+        String track = readString(in);
+        String type = readString(in);
+        Speaker[] presentationSpeakers = new Speaker[in.getInt()];
+
+        for (int k = 0; k < presentationSpeakers.length; k++) {
+          String uuid = readString(in);
+          presentationSpeakers[k] = speakers.get(uuid);
+
+          if (presentationSpeakers[k] == null) {
+            throw new IOException("Unknown speaker " + uuid + " in "
+                + presentation.id);
+          }
+        }
+
+        presentation.setExtended(summary, presentationSpeakers, track, type);
+        presentations.add(presentation);
+      }
+
+      rooms.put(room, presentations);
+    }
+
+    return new ScheduleSnapshot(speakers, rooms);
+  }
+
+  private static void writeString(DataOutputStream out, String value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(NULL_STRING);
+      return;
+    }
+
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+
+    if (length == NULL_STRING) {
+      return null;
+    }
+
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static LocalDateTime readTime(ByteBuffer in) {
+    return LocalDateTime.ofEpochSecond(in.getLong(), 0, ZoneOffset.UTC);
+  }
+}
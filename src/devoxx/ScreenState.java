@@ -0,0 +1,95 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javafx.scene.image.Image;
+
+/**
+ * Everything a screen shows, ready to be put straight into the controls.
+ * These are built off the JavaFX application thread (times formatted, titles
+ * upper cased, photos decoded), so applying one is just a matter of setting
+ * text and images. Immutable, so it can be handed between threads freely.
+ */
+public final class ScreenState {
+
+    private static final DateTimeFormatter TIME_FORMAT
+        = DateTimeFormatter.ofPattern("HH:mm");
+
+    public final String sessionTitle;
+    public final String sessionAbstract;
+    public final String sessionTime;
+    public final List<SpeakerState> speakers;
+    public final String talk1Title;
+    public final String talk1Time;
+    public final String talk2Title;
+    public final String talk2Time;
+    public final String talk3Title;
+    public final String talk3Time;
+
+    /**
+     * Constructor
+     *
+     * @param mainPreso The main presentation that is on now or next
+     * @param secondPreso The next presentation (if there is one)
+     * @param thirdPreso The presentation after next (if there is one)
+     */
+    public ScreenState(Presentation mainPreso, Presentation secondPreso,
+        Presentation thirdPreso) {
+        if (mainPreso != null && mainPreso.title != null) {
+            List<SpeakerState> speakerStates = new ArrayList<>();
+
+            for (Speaker speaker : mainPreso.speakers) {
+                speakerStates.add(new SpeakerState(speaker));
+            }
+
+            sessionTitle = mainPreso.title.toUpperCase();
+            sessionAbstract = mainPreso.summary;
+            sessionTime = timeRange(mainPreso);
+            speakers = Collections.unmodifiableList(speakerStates);
+            talk1Title = mainPreso.title;
+            talk1Time = sessionTime;
+        } else {
+            sessionTitle = "";
+            sessionAbstract = "";
+            sessionTime = "";
+            speakers = Collections.emptyList();
+            talk1Title = "";
+            talk1Time = "";
+        }
+
+        talk2Title = secondPreso != null ? secondPreso.title : "";
+        talk2Time = secondPreso != null ? timeRange(secondPreso) : "";
+        talk3Title = thirdPreso != null ? thirdPreso.title : "";
+        talk3Time = thirdPreso != null ? timeRange(thirdPreso) : "";
+    }
+
+    private static String timeRange(Presentation presentation) {
+        return presentation.fromTime.format(TIME_FORMAT) + " - "
+            + presentation.toTime.format(TIME_FORMAT);
+    }
+
+    /**
+     * What is shown for each speaker
+     */
+    public static final class SpeakerState {
+
+        public final String name;
+        public final Image photo;
+
+        /**
+         * Constructor. Gets the speaker's photo, which decodes it if it is
+         * not already in memory
+         *
+         * @param speaker The speaker
+         */
+        SpeakerState(Speaker speaker) {
+            name = speaker.fullName.toUpperCase();
+            photo = speaker.getPhotoImage();
+        }
+    }
+}
@@ -3,23 +3,9 @@
  */
 package devoxx;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.file.Files;
-import java.nio.file.LinkOption;
-import java.nio.file.Paths;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
-import javafx.scene.shape.Circle;
 
 /**
  * Model object for conference Speaker.
@@ -33,7 +19,7 @@ public class Speaker {
   public final String fullName;
   public String downloadURL;
   public Image photoImage;
-  private final String cache;
+  private final PhotoCache photoCache;
 
   /**
    * Constructor
@@ -42,106 +28,78 @@ public class Speaker {
    * @param uuid Unique user ID
    * @param fullName The speaker's full name
    * @param downloadURL The URL for where the image comes from
-   * @param cache Directory to use for image cache
+   * @param photoCache Where the speaker photos are cached
    */
   public Speaker(Logger logger, String uuid, String fullName,
-      String downloadURL, String cache) {
+      String downloadURL, PhotoCache photoCache) {
     this.logger = logger;
     this.uuid = uuid;
     this.fullName = fullName;
     this.downloadURL = downloadURL;
-    this.cache = cache;
+    this.photoCache = photoCache;
   }
 
   /**
-   * Cache the photo for a speaker if necessary
+   * Check whether the photo for a speaker is in the cache and up to date
+   *
+   * @return True if the photo is cached
+   */
+  public boolean isPhotoCached() {
+    return photoCache.isCached(uuid, photoURL());
+  }
+
+  /**
+   * Cache the photo for a speaker if necessary. This blocks while the photo
+   * downloads, so should not be called on the JavaFX application thread.
    */
   public void cachePhoto() {
-    String photoFileName = cache + File.separatorChar + uuid + ".dat";
+    String photoURL = photoURL();
 
     /* Nothing to see here, move along */
-    if (Files.exists(Paths.get(photoFileName), LinkOption.NOFOLLOW_LINKS))
+    if (photoURL == null || photoCache.isCached(uuid, photoURL))
       return;
 
-    logger.fine("Caching photo for " + fullName);
-    File cacheFile = new File(photoFileName);
-
-    if (downloadURL.contains("\\")) {
+    if (!photoURL.equals(downloadURL)) {
       logger.warning("Image URL badly formed: " + downloadURL);
       logger.warning("Trying to fix this");
-      downloadURL = downloadURL.replace("\\", "/");
     }
 
-    try {
-      URL imageURL = new URL(downloadURL);
-
-      if (!Files.exists(Paths.get(cache), LinkOption.NOFOLLOW_LINKS))
-        Files.createDirectory(Paths.get(cache));
-
-      final URLConnection connection = imageURL.openConnection();
-      connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 (KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11");
-
-      try (DataInputStream photoInputStream = new DataInputStream(connection.getInputStream());
-          DataOutputStream cacheFileOutputStream = new DataOutputStream(new FileOutputStream(cacheFile))) {
-        byte[] buf = new byte[10240];
-        int byteCount;
+    logger.fine("Caching photo for " + fullName);
 
-        while ((byteCount = photoInputStream.read(buf)) > 0)
-          cacheFileOutputStream.write(buf, 0, byteCount);
-      }
+    try {
+      photoCache.fetch(uuid, photoURL);
     } catch (Exception ioe) {
       logger.log(Level.WARNING, "Unable to read photo for " + fullName
-          + " from " + downloadURL, ioe);
+          + " from " + photoURL, ioe);
     }
   }
 
   /**
    * Get the photo for a speaker
    *
-   * @return
+   * @return The photo, or null if it hasn't been cached yet (the prefetcher
+   * says when it has, so the screen can be redrawn with it)
    */
-  public ImageView getPhoto() {
-    ImageView photo;
-
-    String photoFileName = cache + File.separatorChar + uuid + ".dat";
-
-    logger.finer("New speaker: " + fullName);
+  public Image getPhotoImage() {
+    Image cached = photoCache.get(uuid);
 
-    /* Load the image from the cache if it's available, otherwise go out 
-     * to the URL, load it and cache it.
-     */
-    if (Files.exists(Paths.get(photoFileName), LinkOption.NOFOLLOW_LINKS)) {
-      logger.fine("Photo for " + fullName + " found in cache");
-      logger.finer("Cache file: " + photoFileName);
-
-      try {
-        photoImage = new Image(new FileInputStream(photoFileName));
-      } catch (FileNotFoundException ex) {
-        logger.severe("FileNotFound error, which cannot happen!");
-      }
+    if (cached != null) {
+      logger.finer("Photo for " + fullName + " found in cache");
+      photoImage = cached;
     } else {
-      logger.fine("Downloading photo for " + fullName);
-      cachePhoto();   
-      photoImage = new Image(downloadURL, 150, 150, true, true);
+      logger.fine("Photo for " + fullName + " not cached yet");
     }
 
-    /* Create an ImageView for the Image */
-    photo = new ImageView(photoImage);
-
-    if (photoImage.getWidth() < photoImage.getHeight()) {
-      photo.setFitWidth(150);
-    } else {
-      photo.setFitHeight(150);
-    }
+    return photoImage;
+  }
 
-    photo.setPreserveRatio(true);
-    final double squareDim = Math.min(photoImage.getWidth(), photoImage.getHeight());
-    photo.setViewport(new Rectangle2D((photoImage.getWidth() - squareDim) / 2,
-        (photoImage.getHeight() - squareDim) / 2,
-        squareDim, squareDim));
-    photo.setClip(new Circle(75, 75, 75));
-    logger.finest("Speaker photo loaded");
-    return photo;
+  /**
+   * Get the URL of the photo, fixing the badly formed ones we sometimes get
+   *
+   * @return The URL of the photo or null if there isn't one
+   */
+  private String photoURL() {
+    return downloadURL == null ? null : downloadURL.replace("\\", "/");
   }
 
   /**
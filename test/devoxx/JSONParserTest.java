@@ -0,0 +1,242 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import devoxx.JSONParserJP.Callback;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the byte parser fires exactly the same events as the Reader parser,
+ * whether it parses a buffer or a stream, and that a keyed callback sees the
+ * same values for the keys it registered.
+ */
+public class JSONParserTest {
+
+  private static final String SCHEDULE = "{\"slots\":[{\"roomId\":\"room1\","
+      + "\"notAllocated\":false,\"fromTimeMillis\":1478683800000,"
+      + "\"break\":null,\"talk\":{\"title\":\"Caf\u00e9 \u2615 \\\"Java\\\"\","
+      + "\"speakers\":[{\"link\":{\"href\":\"http://x/speakers/a\"},"
+      + "\"name\":\"Ana \\u00c9lise\"},{\"name\":\"\ud83d\ude00 Bob\"}],"
+      + "\"track\":\"Java\\/JVM\",\"summary\":\"line\\nbreak\\ttab\"},"
+      + "\"day\":\"monday\"},{\"roomId\":\"room2\",\"talk\":null,"
+      + "\"tags\":[],\"empty\":{}}]}";
+
+  private static final String VALUES = " [ 1, -2.5, 3e2, true, false, null,"
+      + " \"s\", [ ], { }, [ [ \"nested\" ] ] ] ";
+
+  private static final String[] KEYS = {"roomId", "title", "name",
+    "fromTimeMillis", "talk", "speakers", "tags", "break", "notAllocated"};
+
+  @Test
+  public void schedule() throws IOException {
+    assertSameEvents(SCHEDULE);
+  }
+
+  @Test
+  public void values() throws IOException {
+    assertSameEvents(VALUES);
+  }
+
+  @Test
+  public void longStrings() throws IOException {
+    StringBuilder text = new StringBuilder();
+
+    /* Longer than both parsers' buffers, so tokens straddle reads */
+    for (int i = 0; i < 5000; i++) {
+      text.append("\u00e9\u4e2d\ud83d\ude00x");
+    }
+
+    assertSameEvents("{\"bio\":\"" + text + "\",\"name\":\"" + text + "\"}");
+  }
+
+  @Test
+  public void skippedBlocks() throws IOException {
+    Recorder reader = new Recorder("talk");
+    JSONParserJP.parse(new StringReader(SCHEDULE), reader);
+    Recorder bytes = new Recorder("talk");
+    new JSONByteParser(buffer(SCHEDULE)).parse(bytes);
+    assertEquals(reader.events, bytes.events);
+
+    for (String event : bytes.events) {
+      if (event.contains("title") || event.contains("speakers")) {
+        fail("Skipped block was parsed: " + event);
+      }
+    }
+  }
+
+  @Test
+  public void keyedValues() throws IOException {
+    Recorder plain = new Recorder(null);
+    new JSONByteParser(buffer(SCHEDULE)).parse(plain);
+    KeyedRecorder keyed = new KeyedRecorder();
+    new JSONByteParser(buffer(SCHEDULE)).parse(keyed);
+
+    List<String> expected = new ArrayList<>();
+
+    for (String event : plain.events) {
+      if (event.startsWith("keyValue ")) {
+        String key = event.substring(9, event.indexOf('='));
+
+        if (Arrays.asList(KEYS).contains(key)) {
+          expected.add(event);
+        }
+      }
+    }
+
+    List<String> actual = new ArrayList<>();
+
+    for (String event : keyed.events) {
+      if (event.startsWith("keyValue ")) {
+        actual.add(event);
+      }
+    }
+
+    /* The Reader engine passes a JSON null as an empty string */
+    assertEquals(expected, actual.stream()
+        .map(event -> event.replace("=null@", "=@"))
+        .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void spool() throws IOException {
+    byte[] bytes = SCHEDULE.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    JSONByteParser.parse(new ByteArrayInputStream(bytes), copy,
+        new KeyedRecorder());
+    assertArrayEquals(bytes, copy.toByteArray());
+  }
+
+  /**
+   * Parse the JSON with the Reader engine, and with the byte engine from a
+   * buffer and from a stream read a few bytes at a time, and check they all
+   * fire the same events
+   */
+  private static void assertSameEvents(String json) throws IOException {
+    Recorder reader = new Recorder(null);
+    JSONParserJP.parse(new StringReader(json), reader);
+
+    Recorder mapped = new Recorder(null);
+    new JSONByteParser(buffer(json)).parse(mapped);
+    assertEquals(reader.events, mapped.events);
+
+    Recorder streamed = new Recorder(null);
+    new JSONByteParser(new TrickleInputStream(
+        json.getBytes(StandardCharsets.UTF_8)), null).parse(streamed);
+    assertEquals(reader.events, streamed.events);
+  }
+
+  private static ByteBuffer buffer(String json) {
+    return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns at most 7 bytes per read, so multi-byte characters and escapes
+   * are split across fills
+   */
+  private static final class TrickleInputStream extends ByteArrayInputStream {
+
+    TrickleInputStream(byte[] bytes) {
+      super(bytes);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 7));
+    }
+  }
+
+  /**
+   * Records every event as a string, optionally skipping blocks of one name
+   */
+  private static final class Recorder implements Callback {
+
+    private final List<String> events = new ArrayList<>();
+    private final String skip;
+
+    Recorder(String skip) {
+      this.skip = skip;
+    }
+
+    @Override
+    public boolean startObject(String objectName, int depth) {
+      events.add("startObject " + objectName + "@" + depth);
+      return objectName != null && objectName.equals(skip);
+    }
+
+    @Override
+    public void endObject(String objectName, int depth) {
+      events.add("endObject " + objectName + "@" + depth);
+    }
+
+    @Override
+    public boolean startArray(String arrayName, int depth) {
+      events.add("startArray " + arrayName + "@" + depth);
+      return arrayName != null && arrayName.equals(skip);
+    }
+
+    @Override
+    public void endArray(String arrayName, int depth) {
+      events.add("endArray " + arrayName + "@" + depth);
+    }
+
+    @Override
+    public void stringValue(String value, int depth) {
+      events.add("stringValue " + value + "@" + depth);
+    }
+
+    @Override
+    public void numberValue(double value, int depth) {
+      events.add("numberValue " + value + "@" + depth);
+    }
+
+    @Override
+    public void booleanValue(boolean value, int depth) {
+      events.add("booleanValue " + value + "@" + depth);
+    }
+
+    @Override
+    public void keyValue(String key, String value, int depth) {
+      events.add("keyValue " + key + "=" + value + "@" + depth);
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return false;
+    }
+  }
+
+  /**
+   * Records the values of the registered keys
+   */
+  private static final class KeyedRecorder
+      extends JSONParserJP.KeyedCallbackAdapter {
+
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public String[] keys() {
+      return KEYS;
+    }
+
+    @Override
+    public void keyValue(int key, CharSequence value, int depth) {
+      events.add("keyValue " + KEYS[key] + "="
+          + (value == null ? null : value.toString()) + "@" + depth);
+    }
+  }
+}
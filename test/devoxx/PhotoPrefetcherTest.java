@@ -0,0 +1,92 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks a photo that can't be fetched isn't asked for again on every
+ * update, but is as soon as its URL changes.
+ */
+public class PhotoPrefetcherTest {
+
+  private static final Logger logger = Logger.getLogger("test");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void failedPhotoNotFetchedAgain() throws Exception {
+    FailingCache cache = new FailingCache(folder.getRoot().toString());
+    PhotoPrefetcher prefetcher = new PhotoPrefetcher(logger, 2);
+    Speaker speaker = new Speaker(logger, "uuid-ana", "Ana",
+        "http://x/missing.jpg", cache);
+
+    prefetcher.prefetch(speaker, PhotoPrefetcher.PRIORITY_HIGH);
+    cache.awaitFetches(1);
+
+    /* As the screens and the data refresh would */
+    for (int i = 0; i < 20; i++) {
+      prefetcher.prefetch(speaker, PhotoPrefetcher.PRIORITY_HIGH);
+      prefetcher.prefetch(speaker, PhotoPrefetcher.PRIORITY_LOW);
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, cache.fetches.get());
+
+    /* A new photo is worth trying straight away */
+    speaker.downloadURL = "http://x/new.jpg";
+    prefetcher.prefetch(speaker, PhotoPrefetcher.PRIORITY_HIGH);
+    cache.awaitFetches(2);
+    Thread.sleep(100);
+    assertEquals(2, cache.fetches.get());
+  }
+
+  /**
+   * A photo cache where every download fails, as for a photo that is gone
+   */
+  private static final class FailingCache extends PhotoCache {
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final CountDownLatch[] fetched = {
+      new CountDownLatch(1), new CountDownLatch(2)
+    };
+
+    FailingCache(String directory) {
+      super(logger, directory, 1024 * 1024, 150, 24, new HttpFetcher(5, 5, 2),
+          null);
+    }
+
+    @Override
+    public boolean isCached(String uuid, String sourceURL) {
+      return false;
+    }
+
+    @Override
+    public void fetch(String uuid, String sourceURL) throws IOException {
+      fetches.incrementAndGet();
+
+      for (CountDownLatch latch : fetched) {
+        latch.countDown();
+      }
+
+      throw new IOException("Server returned HTTP 404");
+    }
+
+    void awaitFetches(int count) throws InterruptedException {
+      assertTrue("Photo not fetched",
+          fetched[count - 1].await(5, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks a snapshot reads back as it was written, and that a damaged one is
+ * ignored rather than half loaded.
+ */
+public class ScheduleSnapshotTest {
+
+  private static final Logger logger = Logger.getLogger("test");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Speaker ana = new Speaker(logger, "uuid-ana",
+      "Ana Élise", "http://x/ana.jpg", null);
+  private final Speaker bob = new Speaker(logger, "uuid-bob",
+      "😀 Bob", null, null);
+
+  @Test
+  public void roundTrip() throws IOException {
+    Map<String, List<Presentation>> rooms = new HashMap<>();
+    rooms.put("room1", Arrays.asList(
+        presentation("T1", "room1", 9, ana, bob),
+        presentation("T2", "room1", 11)));
+    rooms.put("room2", Collections.singletonList(
+        presentation("T3", "room2", 14, bob)));
+    rooms.put("room3", Collections.emptyList());
+    Path file = folder.getRoot().toPath().resolve("schedule.snapshot");
+    ScheduleSnapshot.save(file, Arrays.asList(ana, bob), rooms);
+
+    ScheduleSnapshot snapshot = ScheduleSnapshot.load(logger, file, null);
+    assertNotNull(snapshot);
+    assertEquals(2, snapshot.speakers.size());
+
+    for (Speaker speaker : Arrays.asList(ana, bob)) {
+      Speaker loaded = snapshot.speakers.get(speaker.uuid);
+      assertEquals(speaker.fullName, loaded.fullName);
+      assertEquals(speaker.downloadURL, loaded.downloadURL);
+    }
+
+    assertEquals(rooms.keySet(), snapshot.rooms.keySet());
+
+    for (Map.Entry<String, List<Presentation>> room : rooms.entrySet()) {
+      List<Presentation> loaded = snapshot.rooms.get(room.getKey());
+      assertEquals(room.getValue().size(), loaded.size());
+
+      for (int i = 0; i < loaded.size(); i++) {
+        Presentation expected = room.getValue().get(i);
+        Presentation actual = loaded.get(i);
+
+        /* Speakers are read back as new objects, shared between talks */
+        Speaker[] speakers = new Speaker[actual.speakers.length];
+
+        for (int j = 0; j < speakers.length; j++) {
+          assertSame(snapshot.speakers.get(expected.speakers[j].uuid),
+              actual.speakers[j]);
+          speakers[j] = expected.speakers[j];
+        }
+
+        assertTrue(expected.sameContent(actual.withSpeakers(speakers)));
+      }
+    }
+  }
+
+  @Test
+  public void unknownSpeaker() throws IOException {
+    Map<String, List<Presentation>> rooms = Collections.singletonMap("room1",
+        Collections.singletonList(presentation("T1", "room1", 9, ana, bob)));
+    Path file = folder.getRoot().toPath().resolve("schedule.snapshot");
+
+    /* Bob speaks but isn't in the speaker table */
+    ScheduleSnapshot.save(file, Collections.singletonList(ana), rooms);
+    assertNull(ScheduleSnapshot.load(logger, file, null));
+  }
+
+  @Test
+  public void damaged() throws IOException {
+    Map<String, List<Presentation>> rooms = Collections.singletonMap("room1",
+        Collections.singletonList(presentation("T1", "room1", 9, ana)));
+    Path file = folder.getRoot().toPath().resolve("schedule.snapshot");
+    ScheduleSnapshot.save(file, Collections.singletonList(ana), rooms);
+    byte[] good = Files.readAllBytes(file);
+
+    /* Flip a bit in the data */
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(good.length - 3);
+      raf.write(good[good.length - 3] ^ 1);
+    }
+
+    assertNull(ScheduleSnapshot.load(logger, file, null));
+
+    /* Cut it short */
+    Files.write(file, Arrays.copyOf(good, good.length - 10));
+    assertNull(ScheduleSnapshot.load(logger, file, null));
+
+    /* Nothing there at all */
+    Files.delete(file);
+    assertNull(ScheduleSnapshot.load(logger, file, null));
+    assertFalse(Files.exists(file));
+  }
+
+  private static Presentation presentation(String id, String room, int hour,
+      Speaker... speakers) {
+    LocalDateTime from = LocalDateTime.of(2016, 11, 7, hour, 30);
+    Presentation presentation = new Presentation(logger, id, "Title " + id,
+        room, from, from.plusMinutes(50), 50);
+    presentation.setExtended("Summary of " + id + "\nwith é", speakers,
+        id.equals("T2") ? null : "Java", "Conference");
+    return presentation;
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Devoxx digital signage project
+ */
+package devoxx;
+
+import devoxx.JSONParserJP.DownloadResult;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks a response that stops early is an error, so it never replaces the
+ * cached copy.
+ */
+public class TruncatedDownloadTest {
+
+  private static final String GOOD = "{\"slots\":[{\"talk\":{\"title\":\"A\"}},"
+      + "{\"talk\":{\"title\":\"B\"}}]}";
+
+  private static final String TRUNCATED = "{\"slots\":[{\"talk\":{\"title\":"
+      + "\"A\"}},";
+
+  private static final Logger logger = Logger.getLogger("test");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void truncatedBuffer() {
+    assertParseFails(TRUNCATED);
+    assertParseFails("[1, 2");
+    assertParseFails("{\"a\":{}");
+  }
+
+  @Test
+  public void emptyBuffer() {
+    assertParseFails("");
+    assertParseFails(" \r\n\t");
+  }
+
+  @Test
+  public void truncatedStream() {
+    try {
+      JSONByteParser.parse(new ByteArrayInputStream(
+          TRUNCATED.getBytes(StandardCharsets.UTF_8)), null,
+          new JSONParserJP.KeyedCallbackAdapter() {
+        @Override
+        public String[] keys() {
+          return new String[]{"title"};
+        }
+      });
+      fail("Truncated stream parsed");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void truncatedDownloadKeepsCache() throws IOException {
+    assertCacheKept(TRUNCATED);
+  }
+
+  @Test
+  public void emptyDownloadKeepsCache() throws IOException {
+    assertCacheKept("");
+  }
+
+  /**
+   * Download a bad body over a good cache file, and check the download fails
+   * and the cache and its validators are left as they were
+   */
+  private void assertCacheKept(String body) throws IOException {
+    Path source = folder.newFile("response.json").toPath();
+    Files.write(source, body.getBytes(StandardCharsets.UTF_8));
+    Path cache = folder.getRoot().toPath().resolve("schedule.json");
+    Files.write(cache, GOOD.getBytes(StandardCharsets.UTF_8));
+
+    DownloadResult result = JSONParserJP.download(logger,
+        source.toUri().toString(), cache.toString(), new HttpFetcher(5, 5, 2),
+        false, new JSONParserJP.KeyedCallbackAdapter() {
+      @Override
+      public String[] keys() {
+        return new String[]{"title"};
+      }
+    });
+
+    assertEquals(DownloadResult.FAILED, result);
+    assertEquals(GOOD, new String(Files.readAllBytes(cache),
+        StandardCharsets.UTF_8));
+    assertFalse(Files.exists(tempFile(cache)));
+    assertFalse(Files.exists(validatorFile(cache)));
+  }
+
+  private static void assertParseFails(String json) {
+    try {
+      new JSONByteParser(ByteBuffer.wrap(
+          json.getBytes(StandardCharsets.UTF_8))).parse(
+              new JSONParserJP.CallbackAdapter() {
+          });
+      fail("Parsed '" + json + "'");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static Path tempFile(Path cache) {
+    return cache.resolveSibling(cache.getFileName() + ".tmp");
+  }
+
+  private static Path validatorFile(Path cache) {
+    return cache.resolveSibling(cache.getFileName() + ".validators");
+  }
+}